@@ -9,11 +9,55 @@ repositories {
     mavenCentral()
 }
 
+// JMH benchmarks live in src/jmh/java.  Run them with
+//     gradle jmh
+// or pass JMH options, e.g. to pick benchmarks and profile allocations:
+//     gradle jmh -PjmhArgs="WorldBenchmark -prof gc"
+// VectorRays uses the incubating Vector API, so it's kept apart in
+// src/vector and only it is compiled with the incubator module.  The game
+// doesn't need it:  RayFan loads it by name when it's there (it's in the jar,
+// the tests and the benchmarks) and the JVM has the module.
+val vector: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output + vector.output
+}
+
+sourceSets.test {
+    runtimeClasspath += vector.output
+}
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+tasks.named<JavaCompile>(vector.compileJavaTaskName) {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.jar {
+    from(vector.output)
 }
 
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    args = (project.findProperty("jmhArgs") as String?)?.split(" ")?.filter { it.isNotEmpty() } ?: listOf()
+}
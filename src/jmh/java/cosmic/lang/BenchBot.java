@@ -0,0 +1,27 @@
+package cosmic.lang;
+
+import java.awt.Color;
+
+// A quiet, deterministic bot for benchmarks:  lean toward the more open side,
+// brake when the wall ahead gets close.  (MyBot prints while turning.)
+class BenchBot extends Bot {
+    public BenchBot(double x, double y, double angleDegrees) {
+        super(x, y, angleDegrees, "Bench Bot", Color.GREEN);
+    }
+    @Override
+    public int getAction(double dist0,
+                         double dist1,
+                         double dist2,
+                         double dist3,
+                         double dist4) {
+        if (dist2 < 6 && getSpeed() > 4) {
+            return dist1 > dist3 ? BRAKE_LEFT : BRAKE_RIGHT;
+        }
+        if (dist1 > dist3 + 1) {
+            return ACCEL_LEFT;
+        } else if (dist3 > dist1 + 1) {
+            return ACCEL_RIGHT;
+        }
+        return ACCEL;
+    }
+}
@@ -0,0 +1,42 @@
+package cosmic.lang;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Bot.update covers scanRay x5, getAction, the physics and checkCrash.
+// The scans on their own are in ScanBenchmark.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BotBenchmark {
+    @Param({"/World2.png"})
+    public String track;
+
+    private World world;
+    private Bot   bot;
+    private int   ticks;
+
+    @Setup
+    public void setup() {
+        world = new World(track);
+        respawn();
+    }
+
+    private void respawn() {
+        bot = new BenchBot(world.getStartX(), world.getStartY(), 0.0);
+        ticks = 0;
+    }
+
+    @Benchmark
+    public Bot update() {
+        // Restart every so often so we keep measuring a bot that is driving.
+        if (bot.isDead() || ++ticks == 10000) {
+            respawn();
+        }
+        bot.update(world);
+        return bot;
+    }
+}
@@ -0,0 +1,40 @@
+package cosmic.lang;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One frame of particle updates (including dropping expired ones) with
+// 'deaths' explosions going on, starting over once they have all expired.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParticleBenchmark {
+    @Param({"1", "10"})
+    public int deaths;
+
+    private ParticleSystem particles;
+    private Bot            bot;
+    private Random         rand;
+
+    @Setup
+    public void setup() {
+        particles = new ParticleSystem();
+        bot = new Bot(10, 10, 0, "Particles", java.awt.Color.RED);
+        rand = new Random(17);
+    }
+
+    @Benchmark
+    public int update() {
+        if (particles.size() == 0) {
+            for (int i = 0; i < deaths; i++) {
+                bot.generateParticles(particles, rand);
+            }
+        }
+        particles.update();
+        return particles.size();
+    }
+}
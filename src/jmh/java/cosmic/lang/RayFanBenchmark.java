@@ -0,0 +1,86 @@
+package cosmic.lang;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// A full set of rays from one bot:  one scanRay call per ray, against
+// Bot.scanRays with and without the Vector API.  Bots sit at random spots on
+// the track so the rays aren't all the same length every time.
+// rays = 5 is RayFan.STANDARD_ANGLES, the rest are spread evenly around.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RayFanBenchmark {
+    @Param({"/World2.png"})
+    public String track;
+
+    @Param({"5", "16", "64"})
+    public int rays;
+
+    private World    world;
+    private Bot[]    bots;
+    private double[] angles;
+    private double[] out;
+    private int      next;
+
+    @Setup
+    public void setup() {
+        world = new World(track);
+        Random rand = new Random(1);
+        bots = new Bot[256];
+        for (int i = 0; i < bots.length; i++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.checkWorldPoint(x, y));
+            bots[i] = new BenchBot(x, y, rand.nextDouble() * 360);
+        }
+        if (rays == RayFan.STANDARD_ANGLES.length) {
+            angles = RayFan.STANDARD_ANGLES.clone();
+        } else {
+            angles = new double[rays];
+            for (int k = 0; k < rays; k++) {
+                angles[k] = -180.0 + 360.0 * k / rays;
+            }
+        }
+        out = new double[rays];
+    }
+
+    @TearDown
+    public void tearDown() {
+        RayFan.USE_VECTOR = false;
+    }
+
+    private Bot nextBot() {
+        next = (next + 1) & (bots.length - 1);
+        return bots[next];
+    }
+
+    @Benchmark
+    public double[] scanRayEach() {
+        Bot b = nextBot();
+        for (int k = 0; k < rays; k++) {
+            out[k] = b.scanRay(world, angles[k]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] scanRaysVector() {
+        RayFan.USE_VECTOR = true;
+        nextBot().scanRays(world, angles, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] scanRaysScalar() {
+        RayFan.USE_VECTOR = false;
+        nextBot().scanRays(world, angles, out);
+        return out;
+    }
+}
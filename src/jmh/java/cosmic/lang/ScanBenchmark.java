@@ -0,0 +1,44 @@
+package cosmic.lang;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One ray from the start position, with whatever scanRay picks for the track
+// and with each of the two strategies forced.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanBenchmark {
+    @Param({"/World2.png"})
+    public String track;
+
+    @Param({"-90", "0", "45"})
+    public double rayAngle;
+
+    private World world;
+    private Bot   bot;
+
+    @Setup
+    public void setup() {
+        world = new World(track);
+        bot = new BenchBot(world.getStartX(), world.getStartY(), 0.0);
+    }
+
+    @Benchmark
+    public double scanRay() {
+        return bot.scanRay(world, rayAngle);
+    }
+
+    @Benchmark
+    public double scanRayMarch() {
+        return bot.scanRayMarch(world, rayAngle);
+    }
+
+    @Benchmark
+    public double scanRayTraced() {
+        return bot.scanRayTraced(world, rayAngle);
+    }
+}
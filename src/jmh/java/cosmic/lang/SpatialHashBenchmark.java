@@ -0,0 +1,84 @@
+package cosmic.lang;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The spatial hash work RaceEngine does per tick for N bots scattered over a
+// track, without the bots themselves:  refiling every bot, the nearest
+// opponent for every bot, and the neighbor lists collideBots walks.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpatialHashBenchmark {
+    @Param({"/World2.png"})
+    public String track;
+
+    @Param({"100", "1000", "4000"})
+    public int bots;
+
+    private ArrayList<Bot> list;
+    private SpatialHash    hash;
+    private int[]          near;
+
+    @Setup
+    public void setup() {
+        World world = new World(track);
+        Random rand = new Random(1);
+        list = new ArrayList<Bot>();
+        for (int i = 0; i < bots; i++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.checkWorldPoint(x, y));
+            Bot b = new BenchBot(x, y, 0);
+            b.setId(i);
+            list.add(b);
+        }
+        hash = new SpatialHash(world);
+        near = new int[1 << 12];
+        rebuild();
+    }
+
+    @Benchmark
+    public SpatialHash rebuild() {
+        hash.clear();
+        for (Bot b : list) {
+            hash.update(b);
+        }
+        return hash;
+    }
+
+    @Benchmark
+    public int nearest() {
+        int sum = 0;
+        for (Bot b : list) {
+            Bot o = hash.nearest(b, Bot.SCAN_MAX_DIST);
+            sum += (o != null) ? o.getId() : -1;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int touching() {
+        double min2 = 4 * Bot.RADIUS * Bot.RADIUS;
+        int pairs = 0;
+        for (Bot a : list) {
+            int n = hash.neighbors(a, near);
+            for (int k = 0; k < n; k++) {
+                Bot b = hash.get(near[k]);
+                double dx = b.getX() - a.getX();
+                double dy = b.getY() - a.getY();
+                if (b.getId() > a.getId() && dx * dx + dy * dy < min2) {
+                    pairs++;
+                }
+            }
+        }
+        return pairs;
+    }
+}
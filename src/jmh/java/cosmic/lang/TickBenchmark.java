@@ -0,0 +1,45 @@
+package cosmic.lang;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One RaceEngine.step() with N bots:  what MainGame.update() does per frame.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TickBenchmark {
+    @Param({"/World2.png"})
+    public String track;
+
+    @Param({"2", "16", "128"})
+    public int bots;
+
+    private World      world;
+    private RaceEngine engine;
+
+    @Setup
+    public void setup() {
+        world = new World(track);
+        newRace();
+    }
+
+    private void newRace() {
+        engine = new RaceEngine(world, 17, 3);
+        for (int i = 0; i < bots; i++) {
+            // Spread the starting angles a little so the bots don't all do the same thing.
+            engine.addBot(new BenchBot(world.getStartX(), world.getStartY(), (i % 7) - 3));
+        }
+    }
+
+    @Benchmark
+    public RaceEngine tick() {
+        if (!engine.isRaceOn() || engine.getBots().isEmpty()) {
+            newRace();
+        }
+        engine.step();
+        return engine;
+    }
+}
@@ -0,0 +1,51 @@
+package cosmic.lang;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WorldBenchmark {
+    private static final int POINTS = 1024;
+
+    @Param({"/World2.png"})
+    public String track;
+
+    private World    world;
+    private double[] xs, ys;
+
+    @Setup
+    public void setup() {
+        world = new World(track);
+        Random rand = new Random(1);
+        xs = new double[POINTS];
+        ys = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+            ys[i] = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int checkWorldPoint() {
+        int solid = 0;
+        for (int i = 0; i < POINTS; i++) {
+            if (world.checkWorldPoint(xs[i], ys[i])) {
+                solid++;
+            }
+        }
+        return solid;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public World construct() {
+        return new World(track);
+    }
+}
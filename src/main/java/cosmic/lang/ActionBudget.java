@@ -0,0 +1,143 @@
+package cosmic.lang;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// How RaceEngine asks bots for their actions.  Every getAction call is timed
+// into the bot's stats (Bot.getActionCalls etc.) and the profiler's ACTIONS
+// section.  With a budget, a call that takes longer than budgetNanos is an
+// overrun:  it's counted, logged, and the bot DRIFTs that tick instead of
+// doing what it asked for (after the first WARMUP_CALLS).
+//
+// Run inline (the default), a slow getAction still holds up the tick it's in;
+// it just doesn't get to act on it.  With a worker, getAction runs on a pool
+// thread and the engine only waits budgetNanos for it.  A call that runs over
+// is left to finish in the background, and that bot DRIFTs until it has (its
+// getAction is never called twice at once).  While it runs late it can see
+// the bot being moved under it, and whatever it returns is thrown away.
+// Handing off to another thread costs tens of microseconds a call, so only
+// use the worker for bots you don't trust.
+class ActionBudget {
+    // Log the first few overruns of each bot, then every LOG_EVERY-th one.
+    private static final int LOG_FIRST = 5;
+    private static final int LOG_EVERY = 100;
+    // A bot's first calls are timed but never overruns:  that's when its
+    // classes get loaded and the JIT compiles it, which can take milliseconds.
+    public static final int WARMUP_CALLS = 60;
+
+    // No budget, inline, not profiled.
+    public static final ActionBudget NONE = new ActionBudget(0, false, Profiler.NONE);
+
+    private final long            budgetNanos;  // 0 for no limit
+    private final ExecutorService worker;       // null to call getAction inline
+    private final Profiler        profiler;
+    private Future<?>[]           pending;      // by bot id:  a worker call that ran over and is still going
+
+    public ActionBudget(long budgetNanos, boolean useWorker, Profiler profiler) {
+        this.budgetNanos = budgetNanos;
+        this.profiler    = profiler;
+        this.pending     = new Future<?>[8];
+        if (useWorker) {
+            worker = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "getAction");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            worker = null;
+        }
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+    public boolean usesWorker() {
+        return worker != null;
+    }
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    // What bot b gets to do this tick.
+    int decide(Bot b, double dist0, double dist1, double dist2, double dist3, double dist4) {
+        if (worker != null) {
+            return decideOnWorker(b, dist0, dist1, dist2, dist3, dist4);
+        }
+        long start = System.nanoTime();
+        int action = b.getAction(dist0, dist1, dist2, dist3, dist4);
+        long nanos = System.nanoTime() - start;
+        profiler.record(Profiler.ACTIONS, nanos);
+        boolean over = budgetNanos > 0 && nanos > budgetNanos && b.getActionCalls() >= WARMUP_CALLS;
+        b.recordAction(nanos, over);
+        if (over) {
+            logOverrun(b, nanos);
+            return Bot.DRIFT;
+        }
+        return action;
+    }
+
+    private int decideOnWorker(Bot b, double dist0, double dist1, double dist2, double dist3, double dist4) {
+        int id = b.getId();
+        if (id >= pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(id + 1, pending.length * 2));
+        }
+        if (pending[id] != null) {
+            if (!pending[id].isDone()) {
+                b.recordAction(-1, true);  // still busy with an old call
+                return Bot.DRIFT;
+            }
+            pending[id] = null;
+        }
+        boolean limited = budgetNanos > 0 && b.getActionCalls() >= WARMUP_CALLS;
+        long start = System.nanoTime();
+        Future<Integer> f = worker.submit(() -> b.getAction(dist0, dist1, dist2, dist3, dist4));
+        try {
+            int action = limited ? f.get(budgetNanos, TimeUnit.NANOSECONDS) : f.get();
+            long nanos = System.nanoTime() - start;
+            profiler.record(Profiler.ACTIONS, nanos);
+            b.recordAction(nanos, false);
+            return action;
+        } catch (TimeoutException e) {
+            long nanos = System.nanoTime() - start;
+            profiler.record(Profiler.ACTIONS, nanos);
+            b.recordAction(nanos, true);
+            pending[id] = f;
+            logOverrun(b, nanos);
+            return Bot.DRIFT;
+        } catch (ExecutionException e) {
+            // Same as if it had thrown on this thread.
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            return Bot.DRIFT;
+        }
+    }
+
+    private void logOverrun(Bot b, long nanos) {
+        int n = b.getActionOverruns();
+        if (n <= LOG_FIRST || n % LOG_EVERY == 0) {
+            System.out.println(String.format("%s: getAction took %.2f ms (budget %.2f ms), overrun #%d, drifting",
+                    b.getName(), nanos / 1e6, budgetNanos / 1e6, n));
+        }
+    }
+
+    // Stops the worker threads once whatever they're running returns.
+    public void shutdown() {
+        if (worker != null) {
+            worker.shutdown();
+        }
+    }
+}
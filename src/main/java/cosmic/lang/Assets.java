@@ -0,0 +1,366 @@
+package cosmic.lang;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Clip;
+
+// Everything the game loads from disk, loaded once.  Images, worlds and
+// sounds each have an LRU cache bounded by (roughly) how much memory they
+// take, and the first caller of a name loads it while anyone else asking for
+// it waits for that load instead of starting their own.  preload* does the
+// same on a background thread, so e.g. a tournament can load all its tracks at
+// once and only wait for the slowest.
+//
+// What comes out of here is shared:  World never changes after it's built,
+// but don't draw on a cached image.
+//
+// Sounds are decoded once into a Sound, which plays through a few Clips
+// opened from the same bytes (VOICES of them), so a sound that plays again
+// before it's finished starts on a free clip instead of cutting itself off.
+// When they're all busy the one that started first is restarted.  Those
+// clips are the cache's, and are closed when the sound is evicted.  A Clip
+// from clip() is the caller's (like GameBase.loadClip's always was):  it's
+// opened from the same bytes but isn't one of the pool, eviction leaves it
+// alone, and the caller closes it when they're done with it.
+class Assets {
+    public static final long IMAGE_BYTES = 64L << 20;
+    public static final long WORLD_BYTES = 256L << 20;
+    public static final long SOUND_BYTES = 32L << 20;
+    public static final int  VOICES      = 4;  // clips per sound
+
+    private static final Cache<String, BufferedImage> images = new Cache<>(IMAGE_BYTES,
+            i -> 4L * i.getWidth() * i.getHeight());
+    private static final Cache<String, World> worlds = new Cache<>(WORLD_BYTES, World::getMemoryBytes);
+    private static final Cache<String, Sound> sounds = new Cache<>(SOUND_BYTES, s -> s.data.length);
+    // Which Sound each clip handed out by clip() came from, for play(Clip),
+    // until the caller closes it or the sound is evicted.
+    private static final IdentityHashMap<Clip, Sound> owners = new IdentityHashMap<>();
+
+    private static final ExecutorService loader = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), r -> {
+                Thread t = new Thread(r, "assets");
+                t.setDaemon(true);
+                return t;
+            });
+
+    // A decoded image (a plain file, or else a resource on the classpath);
+    // null and a message if it can't be read.
+    public static BufferedImage image(String filename) {
+        return images.get(filename, Assets::readImage);
+    }
+    // A track, see World(String).  Throws like World(String) does.
+    public static World world(String imageFilename) {
+        return worlds.get(imageFilename, World::new);
+    }
+    // A decoded sound;  null and a message if it can't be read.
+    public static Sound sound(String filename) {
+        return sounds.get(filename, Sound::read);
+    }
+    // A Clip of its own for the sound, for code that wants a Clip
+    // (GameBase.loadClip);  null if it can't be read or played.  The caller
+    // owns it and closes it.  Playing it with play(Clip) overlaps on the
+    // sound's pool when it's already playing.
+    public static Clip clip(String filename) {
+        Sound s = sound(filename);
+        return (s != null) ? s.lend() : null;
+    }
+    public static void play(String filename) {
+        Sound s = sound(filename);
+        if (s != null) {
+            s.play();
+        }
+    }
+    // Play c, or if it's still playing, c's sound on whichever of the pool's
+    // clips is free.  A clip that didn't come from here (or whose sound has
+    // been evicted since) just restarts.
+    public static void play(Clip c) {
+        if (c == null) {
+            return;
+        }
+        Sound s;
+        synchronized (owners) {
+            s = owners.get(c);
+        }
+        if (s != null && c.isActive()) {
+            s.play();
+        } else {
+            c.stop();
+            c.setFramePosition(0);
+            c.start();
+        }
+    }
+
+    public static Future<?> preloadImage(String filename) {
+        return loader.submit(() -> image(filename));
+    }
+    public static Future<?> preloadWorld(String imageFilename) {
+        return loader.submit(() -> world(imageFilename));
+    }
+    public static Future<?> preloadSound(String filename) {
+        return loader.submit(() -> sound(filename));
+    }
+    // Load all of these tracks, in parallel, and wait for them.
+    public static World[] worlds(String[] imageFilenames) {
+        for (String name : imageFilenames) {
+            preloadWorld(name);
+        }
+        World[] w = new World[imageFilenames.length];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = world(imageFilenames[i]);  // waits for the preload
+        }
+        return w;
+    }
+
+    // Forget everything (closing the sounds' own clips, not the ones clip()
+    // handed out).
+    public static void clear() {
+        images.clear();
+        worlds.clear();
+        sounds.clear();
+    }
+    public static String stats() {
+        return String.format("images %s, worlds %s, sounds %s", images, worlds, sounds);
+    }
+
+    private static BufferedImage readImage(String filename) {
+        try {
+            File f = new File(filename);
+            BufferedImage image;
+            if (f.isFile()) {
+                image = ImageIO.read(f);
+            } else {
+                URL url = Main.class.getResource(filename);
+                image = (url != null) ? ImageIO.read(url) : null;
+            }
+            if (image == null) {
+                System.out.println("woops...can't load " + filename);
+            }
+            return image;
+        } catch (Exception e) {
+            System.out.println("woops...can't load " + filename);
+            return null;
+        }
+    }
+
+    // The bytes of a sound and the clips playing them.  Clips are opened the
+    // first time they're needed and stay open until the sound is evicted.
+    static class Sound {
+        private final String          name;
+        private final AudioFormat     format;
+        private final byte[]          data;
+        private final Clip[]          voices = new Clip[VOICES];
+        private final long[]          started = new long[VOICES];  // when each voice last started
+        private final ArrayList<Clip> lent = new ArrayList<>();    // handed out by lend, still open
+        private boolean               closed;
+
+        private Sound(String name, AudioFormat format, byte[] data) {
+            this.name   = name;
+            this.format = format;
+            this.data   = data;
+        }
+
+        static Sound read(String filename) {
+            try {
+                File f = new File(filename);
+                URL url = f.isFile() ? f.toURI().toURL() : Main.class.getResource(filename);
+                if (url == null) {
+                    throw new IllegalArgumentException("no such file");
+                }
+                try (AudioInputStream in = AudioSystem.getAudioInputStream(url)) {
+                    return new Sound(filename, in.getFormat(), in.readAllBytes());
+                }
+            } catch (Exception e) {
+                System.out.println("woops...sound issue...can't load " + filename);
+                return null;
+            }
+        }
+        // Clip i, opening it if it isn't yet;  null if there's no line for it.
+        synchronized Clip voice(int i) {
+            if (voices[i] == null && !closed) {
+                voices[i] = open();
+            }
+            return voices[i];
+        }
+        // A new clip that isn't in the pool, for clip();  null if there's no
+        // line for it.
+        synchronized Clip lend() {
+            // Forget the ones their owners have closed.
+            for (Iterator<Clip> it = lent.iterator(); it.hasNext(); ) {
+                Clip c = it.next();
+                if (!c.isOpen()) {
+                    it.remove();
+                    synchronized (owners) {
+                        owners.remove(c);
+                    }
+                }
+            }
+            Clip c = closed ? null : open();
+            if (c != null) {
+                lent.add(c);
+                synchronized (owners) {
+                    owners.put(c, this);
+                }
+            }
+            return c;
+        }
+        private Clip open() {
+            try {
+                Clip c = AudioSystem.getClip();
+                c.open(format, data, 0, data.length);
+                return c;
+            } catch (Exception e) {
+                // No sound card, most likely:  say so once and stay quiet.
+                System.out.println("woops...sound issue...can't open a line for " + name);
+                closed = true;
+                return null;
+            }
+        }
+
+        public synchronized void play() {
+            int pick = -1;
+            for (int i = 0; i < VOICES && pick < 0; i++) {
+                if (voices[i] == null || !voices[i].isActive()) {
+                    pick = i;
+                }
+            }
+            if (pick < 0) {
+                pick = 0;
+                for (int i = 1; i < VOICES; i++) {
+                    if (started[i] < started[pick]) {
+                        pick = i;
+                    }
+                }
+            }
+            Clip c = voice(pick);
+            if (c != null) {
+                c.stop();
+                c.setFramePosition(0);
+                c.start();
+                started[pick] = System.nanoTime();
+            }
+        }
+
+        // Evicted:  close the pool.  Lent clips aren't ours to close;  they
+        // just stop overlapping onto the pool.
+        synchronized void close() {
+            closed = true;
+            for (int i = 0; i < VOICES; i++) {
+                if (voices[i] != null) {
+                    voices[i].close();
+                    voices[i] = null;
+                }
+            }
+            synchronized (owners) {
+                for (Clip c : lent) {
+                    owners.remove(c);
+                }
+            }
+            lent.clear();
+        }
+    }
+
+    // An LRU map from name to whatever it loads as, holding at most maxBytes
+    // (but always the newest entry, however big).  Failed loads (null) aren't
+    // kept, so they're retried next time.
+    static class Cache<K, V> {
+        private final long                                 maxBytes;
+        private final ToLongFunction<V>                    sizeOf;
+        private final LinkedHashMap<K, V>                  entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final HashMap<K, CompletableFuture<V>>     loading = new HashMap<>();
+        private long                                       bytes;
+        private int                                        hits, misses;
+
+        Cache(long maxBytes, ToLongFunction<V> sizeOf) {
+            this.maxBytes = maxBytes;
+            this.sizeOf   = sizeOf;
+        }
+
+        V get(K key, Function<K, V> load) {
+            CompletableFuture<V> pending;
+            boolean mine = false;
+            synchronized (this) {
+                V v = entries.get(key);
+                if (v != null) {
+                    hits++;
+                    return v;
+                }
+                pending = loading.get(key);
+                if (pending == null) {
+                    misses++;
+                    pending = new CompletableFuture<>();
+                    loading.put(key, pending);
+                    mine = true;
+                }
+            }
+            if (!mine) {
+                return pending.join();  // someone else is loading it
+            }
+            V v;
+            try {
+                v = load.apply(key);
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    loading.remove(key);
+                }
+                pending.completeExceptionally(e);
+                throw e;
+            }
+            ArrayList<V> evicted = new ArrayList<>();
+            synchronized (this) {
+                loading.remove(key);
+                if (v != null) {
+                    entries.put(key, v);
+                    bytes += sizeOf.applyAsLong(v);
+                    Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+                    while (bytes > maxBytes && entries.size() > 1) {
+                        V old = it.next().getValue();
+                        bytes -= sizeOf.applyAsLong(old);
+                        it.remove();
+                        evicted.add(old);
+                    }
+                }
+            }
+            pending.complete(v);
+            evicted.forEach(Cache::evicted);
+            return v;
+        }
+
+        void clear() {
+            ArrayList<V> evicted;
+            synchronized (this) {
+                evicted = new ArrayList<>(entries.values());
+                entries.clear();
+                bytes = 0;
+            }
+            evicted.forEach(Cache::evicted);
+        }
+
+        private static void evicted(Object v) {
+            if (v instanceof Sound) {
+                ((Sound)v).close();
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d (%.1f MB, %d hits, %d misses)", entries.size(), bytes / 1e6, hits, misses);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package cosmic.lang;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Picks actions for one bot slot across a batch of races, e.g. MyBotPolicy.
+interface BatchPolicy {
+    // Set batch.action[b] for every b = race * batch.getBotsPerRace() + slot,
+    // fromRace <= race < toRace, with batch.active[b] set.  Only those.
+    void decide(BotBatch batch, int slot, int fromRace, int toRace);
+    // Bit k set if decide reads dist k;  the others aren't scanned.
+    default int rays() {
+        return (1 << BotBatch.RAYS) - 1;
+    }
+}
+
+// Lots of independent races at once, with every bot's state in flat arrays
+// instead of a Bot per bot:  bot b is slot b % botsPerRace of race
+// b / botsPerRace.  Each tick goes over the whole batch in three passes
+// (scan, ask the policies, move) instead of one Bot.update after another,
+// and the races are split into blocks of BLOCK that run on a ForkJoinPool.
+//
+// Nine tenths of a Bot.update is marching rays on the stock tracks (none of
+// them are wide open enough for sphere tracing to pay), so what the layout
+// saves on dispatch is small next to what we save by not scanning:
+//   - Only the rays a policy reads get scanned (BatchPolicy.rays).  Generic
+//     Bot reads none, MyBot three of five.
+//   - The crash check is skipped when the clearance where the bot ended up
+//     is more than RADIUS, which means none of the 8 points can be solid.
+//
+// The physics is Bot's own (its static moveX, speedAfter, checkCrash and so
+// on), in the same order as Bot.update, so a batch ends up exactly where the
+// same races run through RaceEngine would (see BotBatchTest, and 'batch' in
+// Headless).  That only holds with RaceEngine's options off, which is the
+// only way races run here:  bots never see each other.  Nothing cosmetic is
+// kept:  no particles, no previous position for drawing, no recording.
+class BotBatch {
+    public static final int    BLOCK = 64;     // races stepped together
+    public static final int    RAYS  = 5;      // dist0..dist4, in dist[b * RAYS + k]
+    private static final double[] RAY_ANGLES = { -90, -45, 0, 45, 90 };
+
+    private final World[]       worlds;     // per race
+    private final String[]      names;      // per slot
+    private final BatchPolicy[] policies;   // per slot
+    private final int           races, perRace, lapsNeeded;
+
+    // Per bot.  Package-private so policies can read them in tight loops;
+    // only BotBatch writes them (except action).
+    final double[]  x, y, angle, speed;
+    final double[]  dist;
+    final int[]     health, laps, crashes, counter;
+    final int[]     action;     // what the policy picked this tick
+    final boolean[] active;     // racing this tick
+    private final int[] quadrant;  // before this tick's move
+    private final int[] progress;  // the same, see World.getProgressUnits
+    private final int[] rays;      // per slot, see BatchPolicy.rays
+
+    // Per race.
+    private final boolean[] raceOn;
+    private final int[]     frame, alive, winner, winnerFrame;
+    private long            botTicks;
+
+    public BotBatch(World[] worlds, String[] names, BatchPolicy[] policies, int lapsNeeded) {
+        this.worlds     = worlds;
+        this.names      = names;
+        this.policies   = policies;
+        this.races      = worlds.length;
+        this.perRace    = names.length;
+        this.lapsNeeded = lapsNeeded;
+        int n = races * perRace;
+        x        = new double[n];
+        y        = new double[n];
+        angle    = new double[n];
+        speed    = new double[n];
+        dist     = new double[n * RAYS];
+        health   = new int[n];
+        laps     = new int[n];
+        crashes  = new int[n];
+        counter  = new int[n];
+        action   = new int[n];
+        active   = new boolean[n];
+        quadrant = new int[n];
+        progress = new int[n];
+        rays     = new int[perRace];
+        for (int slot = 0; slot < perRace; slot++) {
+            rays[slot] = policies[slot].rays();
+        }
+        raceOn      = new boolean[races];
+        frame       = new int[races];
+        alive       = new int[races];
+        winner      = new int[races];
+        winnerFrame = new int[races];
+        for (int r = 0; r < races; r++) {
+            raceOn[r]      = true;
+            alive[r]       = perRace;
+            winner[r]      = -1;
+            winnerFrame[r] = -1;
+            for (int b = r * perRace; b < (r + 1) * perRace; b++) {
+                x[b]      = worlds[r].getStartX();
+                y[b]      = worlds[r].getStartY();
+                health[b] = Bot.START_HEALTH;
+            }
+        }
+    }
+
+    public int getRaceCount() {
+        return races;
+    }
+    public int getBotsPerRace() {
+        return perRace;
+    }
+    // Bot updates done so far, over every race.
+    public long getBotTicks() {
+        return botTicks;
+    }
+
+    // Like RaceEngine.run for every race.
+    public void run(int maxFrames, int threads) {
+        int blocks = (races + BLOCK - 1) / BLOCK;
+        long[] ticks = new long[blocks];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, blocks).parallel().forEach(k -> {
+                int from = k * BLOCK;
+                int to   = Math.min(races, from + BLOCK);
+                long n;
+                while ((n = step(from, to, maxFrames)) > 0) {
+                    ticks[k] += n;
+                }
+            })).join();
+        } finally {
+            pool.shutdown();
+        }
+        for (long n : ticks) {
+            botTicks += n;
+        }
+    }
+
+    // One tick of races from..to-1 that are still going.  Returns the number
+    // of bots updated, 0 once they're all over.
+    private long step(int from, int to, int maxFrames) {
+        long updated = 0;
+        for (int r = from; r < to; r++) {
+            boolean going = raceOn[r] && alive[r] > 0 && frame[r] < maxFrames;
+            if (going) {
+                frame[r]++;
+            }
+            World world = worlds[r];
+            for (int b = r * perRace; b < (r + 1) * perRace; b++) {
+                active[b] = going && health[b] > 0;
+                if (active[b]) {
+                    sense(world, b, rays[b - r * perRace]);
+                    updated++;
+                }
+            }
+        }
+        if (updated == 0) {
+            return 0;
+        }
+        for (int slot = 0; slot < perRace; slot++) {
+            policies[slot].decide(this, slot, from, to);
+        }
+        for (int r = from; r < to; r++) {
+            World world = worlds[r];
+            int lead = -1;
+            int maxLaps = -1;
+            for (int b = r * perRace; b < (r + 1) * perRace; b++) {
+                if (!active[b]) {
+                    continue;
+                }
+                move(world, b);
+                // Same as RaceEngine.step:  first bot with the most laps leads.
+                if (laps[b] > maxLaps) {
+                    lead    = b - r * perRace;
+                    maxLaps = laps[b];
+                }
+                if (health[b] <= 0) {
+                    alive[r]--;
+                }
+            }
+            if (lead >= 0 && maxLaps >= lapsNeeded) {
+                raceOn[r]      = false;
+                winner[r]      = lead;
+                winnerFrame[r] = frame[r];
+            }
+        }
+        return updated;
+    }
+
+    // First half of Bot.update:  up to getAction.
+    private void sense(World world, int b, int mask) {
+        quadrant[b] = world.getQuadrant(x[b], y[b]);
+        progress[b] = world.getProgressUnits(x[b], y[b]);
+        boolean trace = Bot.SPHERE_TRACE && world.isWideOpen();
+        for (int k = 0; k < RAYS; k++) {
+            if ((mask & (1 << k)) != 0) {
+                double a  = angle[b] + RAY_ANGLES[k] * Bot.DEG_TO_RAD;
+                double dx = Math.cos(a) * Bot.SCAN_INCREMENT;
+                double dy = Math.sin(a) * Bot.SCAN_INCREMENT;
+                dist[b * RAYS + k] = trace ? Bot.traceRay(world, x[b], y[b], dx, dy)
+                                           : Bot.marchRay(world, x[b], y[b], dx, dy);
+            }
+        }
+        counter[b]++;
+    }
+
+    // The rest of Bot.update, a tick at a time.
+    private void move(World world, int b) {
+        double s = Bot.speedAfter(action[b], speed[b]);
+        angle[b] = Bot.angleAfter(action[b], angle[b], s);
+        speed[b] = s;
+        x[b] = Bot.moveX(x[b], angle[b], speed[b]);
+        y[b] = Bot.moveY(y[b], angle[b], speed[b]);
+        if (crashed(world, b)) {
+            angle[b] += Math.PI;
+            x[b] = Bot.moveX(x[b], angle[b], speed[b]);
+            y[b] = Bot.moveY(y[b], angle[b], speed[b]);
+            speed[b] *= 0.5;
+            health[b]--;
+            crashes[b]++;
+        }
+        int p = world.getProgressUnits(x[b], y[b]);
+        laps[b] += Bot.lapsCrossed(world, x[b], y[b], quadrant[b], progress[b], p);
+    }
+
+    // Bot.checkCrash, skipped when the clearance here says it can't be.
+    private boolean crashed(World world, int b) {
+        if (world.probe(x[b], y[b]) * World.BLOCK_METERS > Bot.RADIUS) {
+            return false;
+        }
+        return Bot.checkCrash(world, x[b], y[b]);
+    }
+
+    public RaceResult getResult(int race) {
+        int base = race * perRace;
+        int[] l = new int[perRace];
+        int[] h = new int[perRace];
+        int[] c = new int[perRace];
+        for (int s = 0; s < perRace; s++) {
+            l[s] = laps[base + s];
+            h[s] = health[base + s];
+            c[s] = crashes[base + s];
+        }
+        return new RaceResult(names.clone(), l, h, c, winner[race], winnerFrame[race], frame[race]);
+    }
+    public double getX(int race, int slot) {
+        return x[race * perRace + slot];
+    }
+    public double getY(int race, int slot) {
+        return y[race * perRace + slot];
+    }
+    // Degrees, like Bot.getAngle.
+    public double getAngle(int race, int slot) {
+        return angle[race * perRace + slot] * Bot.RAD_TO_DEG;
+    }
+    public double getSpeed(int race, int slot) {
+        return speed[race * perRace + slot];
+    }
+}
+
+// Generic Bot:  always ACCEL.
+class AccelPolicy implements BatchPolicy {
+    @Override
+    public int rays() {
+        return 0;
+    }
+    @Override
+    public void decide(BotBatch batch, int slot, int fromRace, int toRace) {
+        int n = batch.getBotsPerRace();
+        for (int r = fromRace; r < toRace; r++) {
+            batch.action[r * n + slot] = Bot.ACCEL;
+        }
+    }
+}
+
+// MyBot over a batch, one MyBot.Params (and MyBot.Driver) per race.
+class MyBotPolicy implements BatchPolicy {
+    private final MyBot.Params[] params;
+    private final MyBot.Driver[] drivers;
+
+    public MyBotPolicy(MyBot.Params[] params) {
+        this.params = params;
+        drivers = new MyBot.Driver[params.length];
+        for (int r = 0; r < params.length; r++) {
+            drivers[r] = new MyBot.Driver();
+        }
+    }
+
+    @Override
+    public int rays() {
+        return 0b01110;  // dist1, dist2, dist3
+    }
+    @Override
+    public void decide(BotBatch batch, int slot, int fromRace, int toRace) {
+        int n = batch.getBotsPerRace();
+        for (int r = fromRace; r < toRace; r++) {
+            int b = r * n + slot;
+            if (batch.active[b]) {
+                int d = b * BotBatch.RAYS;
+                batch.action[b] = drivers[r].getAction(params[r], batch.laps[b], batch.speed[b],
+                        batch.dist[d + 1], batch.dist[d + 2], batch.dist[d + 3]);
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package cosmic.lang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Runs a list of races on worker processes (see Worker), which can be on
+// this machine or others.  Workers connect over TCP and are handed batches
+// of races;  a batch is a few races per worker thread, so one round trip
+// covers several races.  Results come back one race at a time as they
+// finish, and go in by race index, so the results don't depend on which
+// worker ran what (the races are deterministic).
+//
+// Work goes to whoever asks:  a worker gets its next batch once it has sent
+// back everything from the last one.  When there's nothing left to hand
+// out, an idle worker steals the second half of what's still running on the
+// busiest one, and both race those;  the first result in counts and the other
+// is ignored.  If a worker dies (its connection drops), whatever it hadn't
+// finished goes back on the queue for the others.
+//
+// A race can fail:  it throws on the worker (which sends FAILED instead of a
+// result and carries on), or its worker dies while it's running.  Either way
+// it's another attempt, and it goes back on the queue, on its own from then
+// on (so if it's what killed the worker, it doesn't take a batch of others
+// down with it next time).  After MAX_ATTEMPTS it's given up on:  its result
+// is null and getFailure says why.  If no worker is connected for
+// WORKER_WAIT_MILLIS (say they all died), everything left is given up on too.
+//
+// Wire format (big-endian, DataOutputStream):
+//     worker:       MAGIC, VERSION, threads
+//     coordinator:  BATCH, count, then count * (race index, RaceSpec.write)
+//                   DONE when there's nothing more to do
+//     worker:       per race, either
+//                   RESULT, race index, winner, finish frame, frames,
+//                   then per bot laps (short), health (byte), crashes (short)
+//                   FAILED, race index, what went wrong (UTF)
+class Coordinator {
+    static final int  MAGIC   = 0x42524443;  // "BRDC"
+    static final int  VERSION = 2;
+    static final byte BATCH = 'B', RESULT = 'R', FAILED = 'F', DONE = 'D';
+    public static final int  RACES_PER_THREAD   = 4;       // batch size, per worker thread
+    public static final int  MAX_ATTEMPTS       = 3;       // per race
+    public static final long WORKER_WAIT_MILLIS = 30000;   // with no workers, before giving up
+
+    private final RaceSpec[]        specs;
+    private final RaceResult[]      results;
+    private final String[]          failures; // per race given up on, why
+    private final int[]             copies;   // how many workers are running each race
+    private final int[]             attempts; // per race, failed runs so far
+    private final ArrayDeque<Integer> queue;  // races nobody is running
+    private final ArrayList<Link>   links;    // connected workers
+    private int                     remaining;
+    private int                     retried, stolen, duplicates;
+    private ServerSocket            server;
+
+    public Coordinator(RaceSpec[] specs) {
+        this.specs = specs;
+        results   = new RaceResult[specs.length];
+        failures  = new String[specs.length];
+        copies    = new int[specs.length];
+        attempts  = new int[specs.length];
+        queue     = new ArrayDeque<Integer>();
+        links     = new ArrayList<Link>();
+        remaining = specs.length;
+        for (int i = 0; i < specs.length; i++) {
+            queue.add(i);
+        }
+    }
+
+    // Accept workers on server until every race has a result or has been
+    // given up on (those are null).
+    public RaceResult[] run(ServerSocket server) throws InterruptedException {
+        return run(server, WORKER_WAIT_MILLIS);
+    }
+    // ...giving up on what's left after waitMillis with no workers.
+    public RaceResult[] run(ServerSocket server, long waitMillis) throws InterruptedException {
+        this.server = server;
+        Thread acceptor = new Thread(this::accept, "coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        synchronized (this) {
+            long idleSince = System.nanoTime();
+            while (remaining > 0) {
+                if (!links.isEmpty()) {
+                    wait();
+                    idleSince = System.nanoTime();
+                    continue;
+                }
+                long left = waitMillis - (System.nanoTime() - idleSince) / 1000000;
+                if (left <= 0) {
+                    for (int race = 0; race < specs.length; race++) {
+                        if (results[race] == null && failures[race] == null) {
+                            failures[race] = "no workers left to run it";
+                        }
+                    }
+                    queue.clear();
+                    remaining = 0;
+                    notifyAll();
+                    break;
+                }
+                wait(left);
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            // done with it anyway
+        }
+        return results;
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                Link link = new Link(socket);
+                Thread t = new Thread(link, "worker link " + socket.getRemoteSocketAddress());
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            // closed:  we're done
+        }
+    }
+
+    public synchronized int getRetried() {
+        return retried;
+    }
+    public synchronized int getStolen() {
+        return stolen;
+    }
+    public synchronized int getDuplicates() {
+        return duplicates;
+    }
+    public synchronized int getWorkers() {
+        return links.size();
+    }
+    // Why race was given up on;  null if it wasn't.
+    public synchronized String getFailure(int race) {
+        return failures[race];
+    }
+    // How many runs of race failed.
+    public synchronized int getAttempts(int race) {
+        return attempts[race];
+    }
+    public synchronized int getFailed() {
+        int n = 0;
+        for (String f : failures) {
+            n += (f != null) ? 1 : 0;
+        }
+        return n;
+    }
+
+    // The next races for link to run:  up to max off the queue, else half of
+    // somebody else's, else wait.  null once every race has a result.
+    private synchronized int[] take(Link link, int max) throws InterruptedException {
+        while (remaining > 0) {
+            if (!queue.isEmpty()) {
+                int n = (attempts[queue.peek()] > 0) ? 1 : Math.min(max, queue.size());
+                int[] batch = new int[n];
+                for (int k = 0; k < n; k++) {
+                    batch[k] = queue.poll();
+                    copies[batch[k]]++;
+                }
+                return batch;
+            }
+            Link victim = null;
+            int most = 1;
+            for (Link l : links) {
+                int n = l.stealable();
+                if (l != link && n > most) {
+                    victim = l;
+                    most = n;
+                }
+            }
+            if (victim != null) {
+                int[] batch = victim.stealHalf();
+                for (int race : batch) {
+                    copies[race]++;
+                }
+                stolen += batch.length;
+                return batch;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    // A result for race from a worker;  counted says the worker's copy is
+    // still in copies (it isn't once the race has been stolen from it).
+    private synchronized void finished(int race, RaceResult r, boolean counted) {
+        if (counted) {
+            copies[race]--;
+        }
+        if (results[race] != null || failures[race] != null) {
+            duplicates++;
+            return;
+        }
+        results[race] = r;
+        remaining--;
+        notifyAll();
+    }
+
+    // A run of race that didn't produce a result, for why.  Counts as an
+    // attempt unless another copy already finished (or gave up on) it;  if
+    // there are attempts left and no other copy running, it goes back on the
+    // queue.
+    private synchronized void failed(int race, String why, boolean counted) {
+        if (counted) {
+            copies[race]--;
+        }
+        if (results[race] != null || failures[race] != null) {
+            return;
+        }
+        attempts[race]++;
+        if (attempts[race] >= MAX_ATTEMPTS) {
+            failures[race] = why;
+            remaining--;
+        } else if (copies[race] == 0) {
+            queue.addFirst(race);
+            retried++;
+        }
+        notifyAll();
+    }
+
+    // link's worker is gone:  whatever it hadn't finished failed.
+    private synchronized void lost(Link link) {
+        links.remove(link);
+        for (int race : link.unfinished()) {
+            failed(race, "its worker died", true);
+        }
+        notifyAll();
+    }
+
+    // One connected worker, served on its own thread.
+    private class Link implements Runnable {
+        private final Socket socket;
+        private int[]        batch = new int[0];
+        private boolean[]    done  = new boolean[0];  // per batch entry:  result back
+        private boolean[]    given = new boolean[0];  // per batch entry:  stolen from us
+
+        Link(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket) {
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    System.out.println("woops...not a worker: " + s.getRemoteSocketAddress());
+                    return;
+                }
+                int threads = Math.max(1, in.readInt());
+                synchronized (Coordinator.this) {
+                    links.add(this);
+                }
+                while (true) {
+                    int[] next = take(this, threads * RACES_PER_THREAD);
+                    if (next == null) {
+                        out.writeByte(DONE);
+                        out.flush();
+                        return;
+                    }
+                    synchronized (Coordinator.this) {
+                        batch = next;
+                        done  = new boolean[next.length];
+                        given = new boolean[next.length];
+                    }
+                    out.writeByte(BATCH);
+                    out.writeInt(next.length);
+                    for (int race : next) {
+                        out.writeInt(race);
+                        specs[race].write(out);
+                    }
+                    out.flush();
+                    for (int k = 0; k < next.length; k++) {
+                        byte tag = in.readByte();
+                        if (tag != RESULT && tag != FAILED) {
+                            throw new IOException("expected a result");
+                        }
+                        int race = in.readInt();
+                        RaceResult r = (tag == RESULT) ? readResult(in, specs[race]) : null;
+                        String why = (tag == FAILED) ? in.readUTF() : null;
+                        boolean counted = false;
+                        synchronized (Coordinator.this) {
+                            for (int i = 0; i < batch.length; i++) {
+                                if (batch[i] == race && !done[i]) {
+                                    done[i] = true;
+                                    counted = !given[i];
+                                }
+                            }
+                            if (r != null) {
+                                finished(race, r, counted);
+                            } else {
+                                failed(race, why, counted);
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                if (!(e instanceof SocketException) && !(e instanceof EOFException)) {
+                    System.out.println("woops...worker " + socket.getRemoteSocketAddress() + ": " + e);
+                }
+            } finally {
+                lost(this);
+            }
+        }
+
+        // Called with the Coordinator locked.
+        int stealable() {
+            int n = 0;
+            for (int i = 0; i < batch.length; i++) {
+                if (!done[i] && !given[i] && copies[batch[i]] == 1) {
+                    n++;
+                }
+            }
+            return n;
+        }
+        // The second half of what we haven't finished (the worker takes races
+        // from the front, so that's what it would have got to last).  We keep
+        // running them too, but they're no longer ours to hand back if we die.
+        int[] stealHalf() {
+            int[] open = new int[stealable()];
+            int[] index = new int[open.length];
+            int n = 0;
+            for (int i = 0; i < batch.length; i++) {
+                if (!done[i] && !given[i] && copies[batch[i]] == 1) {
+                    index[n] = i;
+                    open[n++] = batch[i];
+                }
+            }
+            int keep = n / 2;
+            for (int k = keep; k < n; k++) {
+                given[index[k]] = true;
+                copies[open[k]]--;  // handed over:  the thief's copy counts instead
+            }
+            return Arrays.copyOfRange(open, keep, n);
+        }
+        ArrayList<Integer> unfinished() {
+            ArrayList<Integer> races = new ArrayList<Integer>();
+            for (int i = 0; i < batch.length; i++) {
+                if (!done[i] && !given[i]) {
+                    races.add(batch[i]);
+                }
+            }
+            return races;
+        }
+    }
+
+    static void writeResult(DataOutputStream out, int race, RaceResult r) throws IOException {
+        out.writeByte(RESULT);
+        out.writeInt(race);
+        out.writeInt(r.getWinner());
+        out.writeInt(r.getFinishFrame());
+        out.writeInt(r.getFrames());
+        for (int b = 0; b < r.getBotCount(); b++) {
+            out.writeShort(r.getLaps(b));
+            out.writeByte(r.getHealth(b));
+            out.writeShort(r.getCrashes(b));
+        }
+    }
+    static void writeFailure(DataOutputStream out, int race, Throwable e) throws IOException {
+        String why = e.toString();
+        out.writeByte(FAILED);
+        out.writeInt(race);
+        out.writeUTF(why.length() > 1000 ? why.substring(0, 1000) : why);
+    }
+    private static RaceResult readResult(DataInputStream in, RaceSpec spec) throws IOException {
+        int winner      = in.readInt();
+        int finishFrame = in.readInt();
+        int frames      = in.readInt();
+        int n = spec.bots.length;
+        int[] laps = new int[n], health = new int[n], crashes = new int[n];
+        for (int b = 0; b < n; b++) {
+            laps[b]    = in.readShort();
+            health[b]  = in.readByte();
+            crashes[b] = in.readShort();
+        }
+        // Named as in the spec (registry names, which is what Standings goes by).
+        return new RaceResult(spec.bots.clone(), laps, health, crashes, winner, finishFrame, frames);
+    }
+
+    // Start a worker JVM on this machine, with the same classpath as us.
+    // dieAfter > 0 makes it drop dead after that many results (for testing).
+    static Process launchWorker(int port, int threads, int dieAfter) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                Main.class.getName(), "worker", "localhost", String.valueOf(port), String.valueOf(threads),
+                String.valueOf(dieAfter));
+        pb.inheritIO();
+        return pb.start();
+    }
+}
+
+// The other end of a Coordinator:  connect, then run whatever batches it
+// sends, threads races at a time, sending each result back as it finishes.
+// A race that throws (a bot with a bug, say) is reported as FAILED and the
+// worker carries on with the rest.
+class Worker {
+    public static void run(String host, int port, int threads, int dieAfter) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(Coordinator.MAGIC);
+            out.writeInt(Coordinator.VERSION);
+            out.writeInt(threads);
+            out.flush();
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            int[] sent = { 0 };
+            try {
+                while (in.readByte() == Coordinator.BATCH) {
+                    int n = in.readInt();
+                    int[] races = new int[n];
+                    RaceSpec[] specs = new RaceSpec[n];
+                    for (int k = 0; k < n; k++) {
+                        races[k] = in.readInt();
+                        specs[k] = RaceSpec.read(in);
+                    }
+                    pool.submit(() -> IntStream.range(0, n).parallel().forEach(k -> {
+                        RaceResult r = null;
+                        Throwable failure = null;
+                        try {
+                            r = specs[k].run();
+                        } catch (RuntimeException | Error e) {
+                            failure = e;
+                        }
+                        synchronized (out) {
+                            try {
+                                if (r != null) {
+                                    Coordinator.writeResult(out, races[k], r);
+                                } else {
+                                    Coordinator.writeFailure(out, races[k], failure);
+                                }
+                                out.flush();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            if (++sent[0] == dieAfter) {
+                                Runtime.getRuntime().halt(1);  // as if the machine went away
+                            }
+                        }
+                    })).join();
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package cosmic.lang;
+
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// Active rendering for GameBase:  one thread that both updates and draws, so
+// nothing races the EDT.  Updates run at a fixed Bot.DT no matter how fast we
+// draw (accumulator style, see "Fix Your Timestep"), frames are drawn with a
+// page-flipping BufferStrategy at up to targetFps, and are told how far we are
+// between two updates so motion can be interpolated.
+//
+// If we fall behind (slow frame, GC pause, window dragged) we run at most
+// MAX_UPDATES_PER_FRAME updates and drop the rest instead of trying to catch
+// up, which would only make the next frame slower still.
+class GameLoop implements Runnable {
+    public static final int    MAX_UPDATES_PER_FRAME = 5;
+    public static final int    DEFAULT_TARGET_FPS    = 120;
+    public static final double REPORT_SECONDS        = 5.0;  // how often frame times are printed
+
+    private final GameBase game;
+    private final Canvas   canvas;
+    private final int      targetFps;
+    private final long[]   frameTimes;   // ns between frames, a ring buffer
+    private int            frames;
+    private long           droppedTicks;
+    private volatile boolean running;
+    private Thread         thread;
+
+    public GameLoop(GameBase game, Canvas canvas) {
+        this(game, canvas, DEFAULT_TARGET_FPS);
+    }
+    public GameLoop(GameBase game, Canvas canvas, int targetFps) {
+        this.game       = game;
+        this.canvas     = canvas;
+        this.targetFps  = targetFps;
+        this.frameTimes = new long[1024];
+    }
+
+    public void start() {
+        canvas.createBufferStrategy(2);
+        running = true;
+        thread = new Thread(this, "GameLoop");
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        long tickNanos   = (long)(Bot.DT * 1e9);
+        long frameNanos  = targetFps > 0 ? 1_000_000_000L / targetFps : 0;
+        long accumulator = 0;
+        long last        = System.nanoTime();
+        long nextReport  = last + (long)(REPORT_SECONDS * 1e9);
+        while (running) {
+            long now = System.nanoTime();
+            long elapsed = now - last;
+            last = now;
+            recordFrame(elapsed);
+            accumulator += elapsed;
+
+            int updates = 0;
+            while (accumulator >= tickNanos && updates < MAX_UPDATES_PER_FRAME) {
+                if (game.SET) {
+                    game.tick();
+                }
+                accumulator -= tickNanos;
+                updates++;
+            }
+            if (accumulator >= tickNanos) {
+                // Overloaded:  forget about the time we couldn't simulate.
+                droppedTicks += accumulator / tickNanos;
+                accumulator %= tickNanos;
+            }
+
+            draw(strategy, (double)accumulator / tickNanos);
+
+            if (now >= nextReport) {
+                System.out.println(report());
+                nextReport = now + (long)(REPORT_SECONDS * 1e9);
+            }
+            // Sleep off whatever is left of this frame.
+            if (frameNanos > 0) {
+                long wake = now + frameNanos;
+                long left;
+                while ((left = wake - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(left);
+                }
+            }
+        }
+    }
+
+    private void draw(BufferStrategy strategy, double alpha) {
+        // The usual BufferStrategy loops, since the buffers can be lost.
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    if (game.SET) {
+                        game.render(g, alpha);
+                    }
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    private void recordFrame(long nanos) {
+        game.getProfiler().record(Profiler.FRAME, nanos);
+        frameTimes[frames % frameTimes.length] = nanos;
+        frames++;
+    }
+
+    // Frame time percentiles over the last (up to) 1024 frames.
+    public String report() {
+        int n = Math.min(frames, frameTimes.length);
+        if (n == 0) {
+            return "no frames yet";
+        }
+        long[] sorted = Arrays.copyOf(frameTimes, n);
+        Arrays.sort(sorted);
+        return String.format("frame ms: p50 %.2f  p95 %.2f  p99 %.2f  max %.2f  (%d frames, %d ticks dropped)",
+                sorted[n / 2] / 1e6, sorted[n * 95 / 100] / 1e6, sorted[n * 99 / 100] / 1e6,
+                sorted[n - 1] / 1e6, frames, droppedTicks);
+    }
+}
@@ -0,0 +1,703 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+// Command line entry points that don't open a window.  Run via Main with arguments
+// ('watch <file>' is the one that does, see Main):
+//     race [track] [laps] [seed] [runs]    run a race as fast as possible and print the result;
+//                                          runs > 1 repeats it to get a warmed-up timing
+//     tournament [seeds] [threads] [laps]  every registered bot on every track, in parallel
+//     record <file> [track] [laps] [seed]  run a race and record it, see RaceRecorder
+//     replay <file> [frame]                play a recording back (to the end, or just to frame)
+//     profile <csv> [seconds] [track]     race over and over with a Profiler writing to csv
+//     crowd [bots] [track] [ticks]         lots of bots with collisions and the opponent sensor
+//                                          on, timing the spatial hash against a plain race
+//     optimize [generations] [population] [threads] [seed]
+//                                          evolve MyBot.Params on every track, see Optimizer
+//     batch [races] [threads]              Generic Bot and MyBot (random Params) races through
+//                                          BotBatch and RaceEngine, timed
+//     budget [micros] [worker] [track]     the usual lineup plus a bot that stalls now and then,
+//                                          with a getAction budget (see ActionBudget)
+//     coarse [frames] [races] [threads] [nearWall]
+//                                          batch's races a tick per step and frames ticks per step
+//                                          (see RaceEngine.setStepFrames), timed
+//     env [envs] [track] [frames]          serve a RaceEnv on stdin/stdout for a trainer
+//     env-bench [envs] [steps] [frames] [track]
+//                                          step a RaceEnv with a simple policy:  speed and garbage
+//     generate <png> [seed] [length] [width] [curvature] [points]
+//                                          make a track (see TrackGenerator) and save it as an image
+//     generated [races] [length] [threads] the usual lineup on a freshly generated track per race
+//     coordinator [workers] [seeds] [port] [kill]
+//                                          tournament's races on worker JVMs (see Coordinator), launched
+//                                          here;  kill > 0 makes the first die after that many races
+//     worker <host> <port> [threads] [dieAfter]
+//                                          run races for a coordinator
+//     table [bot] [bins] [samples]         compile a StatelessBot (CruiseBot) into a PolicyTable with
+//                                          bins "d0,d1,d2,d3,d4,speed":  how often it disagrees with
+//                                          the bot, how much faster a tick is (below 1x for
+//                                          CruiseBot), and how it races
+class Headless {
+    public static void main(String[] args) {
+        switch (args[0]) {
+            case "race":
+                race(arg(args, 1, "/World2.png"),
+                        Integer.parseInt(arg(args, 2, "3")),
+                        Long.parseLong(arg(args, 3, "17")),
+                        Integer.parseInt(arg(args, 4, "1")));
+                break;
+            case "tournament":
+                tournament(Integer.parseInt(arg(args, 1, "16")),
+                        Integer.parseInt(arg(args, 2, String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Integer.parseInt(arg(args, 3, "3")));
+                break;
+            case "record":
+                record(args[1], arg(args, 2, "/World2.png"),
+                        Integer.parseInt(arg(args, 3, "3")),
+                        Long.parseLong(arg(args, 4, "17")));
+                break;
+            case "replay":
+                replay(args[1], Integer.parseInt(arg(args, 2, "-1")));
+                break;
+            case "profile":
+                profile(args[1], Double.parseDouble(arg(args, 2, "5")), arg(args, 3, "/World2.png"));
+                break;
+            case "crowd":
+                crowd(Integer.parseInt(arg(args, 1, "1000")), arg(args, 2, "/World2.png"),
+                        Integer.parseInt(arg(args, 3, "600")));
+                break;
+            case "optimize":
+                optimize(Integer.parseInt(arg(args, 1, "20")), Integer.parseInt(arg(args, 2, "48")),
+                        Integer.parseInt(arg(args, 3, String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Long.parseLong(arg(args, 4, "1")));
+                break;
+            case "batch":
+                batch(Integer.parseInt(arg(args, 1, "512")),
+                        Integer.parseInt(arg(args, 2, String.valueOf(Runtime.getRuntime().availableProcessors()))));
+                break;
+            case "budget":
+                budget(Long.parseLong(arg(args, 1, "2000")), arg(args, 2, "inline").equals("worker"),
+                        arg(args, 3, "/World2.png"));
+                break;
+            case "coarse":
+                coarse(Integer.parseInt(arg(args, 1, "4")), Integer.parseInt(arg(args, 2, "256")),
+                        Integer.parseInt(arg(args, 3, String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Double.parseDouble(arg(args, 4, String.valueOf(RaceEngine.DEFAULT_NEAR_WALL))));
+                break;
+            case "env":
+                env(Integer.parseInt(arg(args, 1, "64")), arg(args, 2, "/World2.png"),
+                        Integer.parseInt(arg(args, 3, "1")));
+                break;
+            case "env-bench":
+                envBench(Integer.parseInt(arg(args, 1, "64")), Integer.parseInt(arg(args, 2, "20000")),
+                        Integer.parseInt(arg(args, 3, "1")), arg(args, 4, "/World2.png"));
+                break;
+            case "generate":
+                TrackGenerator.Params p = trackParams(args, 3);
+                generate(args[1], Long.parseLong(arg(args, 2, "1")), p);
+                break;
+            case "generated":
+                TrackGenerator.Params params = new TrackGenerator.Params();
+                params.length = Double.parseDouble(arg(args, 2, "150"));
+                generated(Integer.parseInt(arg(args, 1, "64")), params,
+                        Integer.parseInt(arg(args, 3, String.valueOf(Runtime.getRuntime().availableProcessors()))));
+                break;
+            case "coordinator":
+                coordinator(Integer.parseInt(arg(args, 1, "2")), Integer.parseInt(arg(args, 2, "16")),
+                        Integer.parseInt(arg(args, 3, "0")), Integer.parseInt(arg(args, 4, "0")));
+                break;
+            case "worker":
+                worker(args[1], Integer.parseInt(args[2]),
+                        Integer.parseInt(arg(args, 3, String.valueOf(Runtime.getRuntime().availableProcessors()))),
+                        Integer.parseInt(arg(args, 4, "0")));
+                break;
+            case "table":
+                String[] binArgs = arg(args, 2, "1,32,16,32,1,16").split(",");
+                int[] bins = new int[binArgs.length];
+                for (int i = 0; i < bins.length; i++) {
+                    bins[i] = Integer.parseInt(binArgs[i]);
+                }
+                table(arg(args, 1, CruiseBot.class.getName()), bins, Integer.parseInt(arg(args, 3, "4")));
+                break;
+            default:
+                System.out.println("Unknown command: " + args[0]);
+                System.out.println("Usage: race [track] [laps] [seed] [runs]");
+                System.out.println("       tournament [seeds] [threads] [laps]");
+                System.out.println("       record <file> [track] [laps] [seed] | replay <file> [frame]");
+                System.out.println("       profile <csv> [seconds] [track] | crowd [bots] [track] [ticks]");
+                System.out.println("       optimize [generations] [population] [threads] [seed]");
+                System.out.println("       batch [races] [threads] | budget [micros] [worker|inline] [track]");
+                System.out.println("       coarse [frames] [races] [threads] [nearWall]");
+                System.out.println("       env [envs] [track] [frames] | env-bench [envs] [steps] [frames] [track]");
+                System.out.println("       generate <png> [seed] [length] [width] [curvature] [points]");
+                System.out.println("       generated [races] [length] [threads]");
+                System.out.println("       coordinator [workers] [seeds] [port] [kill] | worker <host> <port> [threads] [dieAfter]");
+                System.out.println("       table [bot] [d0,d1,d2,d3,d4,speed bins] [samples]");
+        }
+    }
+
+    private static String arg(String[] args, int i, String defaultValue) {
+        return i < args.length ? args[i] : defaultValue;
+    }
+
+    static void race(String track, int laps, long seed, int runs) {
+        World world = Assets.world(track);
+        RaceResult result = null;
+        long frames = 0;
+        long start = 0;
+        for (int run = 0; run < runs; run++) {
+            if (run == runs / 2) {
+                // only time the second half of the runs, the first half warms up the JIT
+                frames = 0;
+                start = System.nanoTime();
+            }
+            result = lineup(world, seed, laps).run(RaceEngine.DEFAULT_MAX_FRAMES);
+            frames += result.getFrames();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.print(result);
+        System.out.printf("%d frames in %.3f s: %.0f frames/s, %.0fx real time%n",
+                frames, seconds, frames / seconds, frames * Bot.DT / seconds);
+    }
+
+    static void tournament(int seeds, int threads, int laps) {
+        Tournament t = new Tournament(Tournament.TRACKS, BotRegistry.names(), seeds, laps);
+        long start = System.nanoTime();
+        RaceResult[] results = t.run(threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long frames = 0;
+        for (RaceResult r : results) {
+            frames += r.getFrames();
+        }
+        System.out.print(t.standings(results));
+        System.out.printf("%d races on %d threads in %.3f s: %.1f races/s, %.0f frames/s%n",
+                results.length, threads, seconds, results.length / seconds, frames / seconds);
+    }
+
+    private static RaceEngine lineup(World world, long seed, int laps) {
+        RaceEngine engine = new RaceEngine(world, seed, laps);
+        engine.setParticlesEnabled(false);
+        for (String name : BotRegistry.names()) {
+            engine.addBot(BotRegistry.get(name).create(world.getStartX(), world.getStartY(), 0.0));
+        }
+        return engine;
+    }
+
+    static void record(String file, String track, int laps, long seed) {
+        World world = Assets.world(track);
+        // Once without recording, for comparison.
+        long start = System.nanoTime();
+        lineup(world, seed, laps).run(RaceEngine.DEFAULT_MAX_FRAMES);
+        double plain = (System.nanoTime() - start) / 1e9;
+
+        RaceEngine engine = lineup(world, seed, laps);
+        start = System.nanoTime();
+        RaceResult result;
+        try (RaceRecorder recorder = new RaceRecorder(Paths.get(file), engine)) {
+            engine.setRecorder(recorder);
+            result = engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        double recorded = (System.nanoTime() - start) / 1e9;
+        System.out.print(result);
+        System.out.printf("recorded %d frames to %s in %.3f s (%.3f s without recording)%n",
+                result.getFrames(), file, recorded, plain);
+    }
+
+    static void replay(String file, int frame) {
+        try (RaceReplay replay = new RaceReplay(Paths.get(file))) {
+            RaceEngine engine = replay.getEngine();
+            long start = System.nanoTime();
+            if (frame >= 0) {
+                replay.seek(frame);
+            } else {
+                while (replay.step()) {
+                    // keep going
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("at frame %d of %d (%.3f s)%n", engine.getFrame(), replay.getFrames(), seconds);
+            for (Bot b : engine.getRoster()) {
+                System.out.printf("  %-20s x: %7.3f  y: %7.3f  angle: %8.3f  speed: %6.3f  laps: %d  health: %d%n",
+                        b.getName(), b.getX(), b.getY(), b.getAngle(), b.getSpeed(), b.getLaps(), b.getHealth());
+            }
+            if (replay.isFinished()) {
+                System.out.print(engine.getResult());
+                System.out.println(replay.matchesRecording() ? "matches the recording" : "DOES NOT match the recording");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // What MainGame's profiler sees, without the window:  the usual lineup,
+    // one race after another at 60 ticks a second for the given time.
+    static void profile(String csv, double seconds, String track) {
+        World world = Assets.world(track);
+        Profiler profiler = new Profiler();
+        profiler.startReporting(Paths.get(csv));
+        long end = System.nanoTime() + (long)(seconds * 1e9);
+        long next = System.nanoTime();
+        RaceEngine engine = null;
+        while (System.nanoTime() < end) {
+            if (engine == null || !engine.isRaceOn() || engine.getBots().isEmpty()) {
+                engine = lineup(world, 17, 3);
+                engine.setProfiler(profiler);
+            }
+            engine.step();
+            next += (long)(Bot.DT * 1e9);
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                java.util.concurrent.locks.LockSupport.parkNanos(wait);
+            }
+        }
+        profiler.stopReporting();
+        for (String line : profiler.lines()) {
+            System.out.println(line);
+        }
+    }
+
+    static void optimize(int generations, int populationSize, int threads, long seed) {
+        World[] worlds = Assets.worlds(Tournament.TRACKS);
+        int laps = 3;
+        int maxFrames = 60 * 60 * 3;  // 3 minutes:  anything slower isn't worth waiting for
+        GenomeFactory factory = genes -> {
+            MyBot.Params p = MyBot.Params.fromGenes(genes);
+            return (x, y, a) -> new MyBot(x, y, a, p);
+        };
+        double[] start = new MyBot.Params().toGenes();
+        Optimizer opt = new Optimizer(MyBot.Params.SPACE, factory, start, worlds, laps, maxFrames, populationSize, seed);
+        System.out.printf("hand-tuned: %.0f%n", opt.evaluate(start));
+        long began = System.nanoTime();
+        for (int g = 0; g < generations; g++) {
+            double best = opt.nextGeneration(threads);
+            double seconds = (System.nanoTime() - began) / 1e9;
+            System.out.printf("generation %3d  best %8.0f  mean %8.0f  %6d races  %7.0f races/min%n",
+                    g, best, opt.getMeanScore(), opt.getRaces(), opt.getRaces() / seconds * 60);
+        }
+        MyBot.Params best = MyBot.Params.fromGenes(opt.getBest());
+        System.out.println("best: " + best);
+        for (int t = 0; t < worlds.length; t++) {
+            RaceEngine engine = new RaceEngine(worlds[t], 17, laps);
+            engine.setParticlesEnabled(false);
+            engine.addBot(new MyBot(worlds[t].getStartX(), worlds[t].getStartY(), 0.0, best));
+            System.out.print(Tournament.TRACKS[t] + ": " + engine.run(maxFrames));
+        }
+    }
+
+    // Race r is on track r % 4 with MyBot.Params.random(r), so the races all
+    // go differently.  Just timing:  BotBatchTest checks they come out the same.
+    static void batch(int races, int threads) {
+        World[] tracks = Assets.worlds(Tournament.TRACKS);
+        World[] worlds = new World[races];
+        MyBot.Params[] params = new MyBot.Params[races];
+        for (int r = 0; r < races; r++) {
+            worlds[r] = tracks[r % tracks.length];
+            params[r] = MyBot.Params.random(r);
+        }
+        int laps = 3;
+        int maxFrames = RaceEngine.DEFAULT_MAX_FRAMES;
+        String[] names = { "Generic Bot", "Doug's Bot" };
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            double objects = runAll(races, threads, r -> {
+                RaceEngine engine = new RaceEngine(worlds[r], 17, laps);
+                engine.setParticlesEnabled(false);
+                engine.addBot(new Bot(worlds[r].getStartX(), worlds[r].getStartY(), 0.0, names[0], Color.BLUE));
+                engine.addBot(new MyBot(worlds[r].getStartX(), worlds[r].getStartY(), 0.0, params[r]));
+                engine.run(maxFrames);
+            });
+
+            long start = System.nanoTime();
+            BotBatch batch = new BotBatch(worlds, names,
+                    new BatchPolicy[] { new AccelPolicy(), new MyBotPolicy(params) }, laps);
+            batch.run(maxFrames, threads);
+            double batched = (System.nanoTime() - start) / 1e9;
+
+            long botTicks = batch.getBotTicks();
+            System.out.printf("%d races, %d bot-ticks:  RaceEngine %.3f s (%.2fM bot-ticks/s), BotBatch %.3f s (%.2fM bot-ticks/s), %.1fx%n",
+                    races, botTicks, objects, botTicks / objects / 1e6, batched, botTicks / batched / 1e6,
+                    objects / batched);
+        }
+    }
+
+    // batch's races, run a tick per step and then frames ticks per step.  Just
+    // timing:  CoarseStepTest checks the outcomes.
+    static void coarse(int frames, int races, int threads, double nearWall) {
+        World[] tracks = Assets.worlds(Tournament.TRACKS);
+        MyBot.Params[] params = new MyBot.Params[races];
+        for (int r = 0; r < races; r++) {
+            params[r] = MyBot.Params.random(r);
+        }
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            double fineSeconds   = runAll(races, threads, r -> coarseRace(tracks[r % tracks.length], params[r], 1, 0));
+            double coarseSeconds = runAll(races, threads, r -> coarseRace(tracks[r % tracks.length], params[r], frames, nearWall));
+            System.out.printf("%d races, %d ticks a step (near wall %.1f m):  %.3f s vs %.3f s a tick per step, %.1fx%n",
+                    races, frames, nearWall, coarseSeconds, fineSeconds, fineSeconds / coarseSeconds);
+        }
+    }
+    private static RaceResult coarseRace(World world, MyBot.Params params, int frames, double nearWall) {
+        RaceEngine engine = new RaceEngine(world, 17, 3);
+        engine.setParticlesEnabled(false);
+        engine.setStepFrames(frames);
+        engine.setNearWall(nearWall);
+        engine.addBot(new Bot(world.getStartX(), world.getStartY(), 0.0, "Generic Bot", Color.BLUE));
+        engine.addBot(new MyBot(world.getStartX(), world.getStartY(), 0.0, params));
+        return engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+    }
+    private static double runAll(int races, int threads, IntConsumer race) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, races).parallel().forEach(race)).join();
+        } finally {
+            pool.shutdown();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    static void env(int envs, String track, int frames) {
+        System.setOut(System.err);  // stdout is for replies only, and loading the track prints
+        RaceEnv env = new RaceEnv(Assets.world(track), envs, 3, RaceEngine.DEFAULT_MAX_FRAMES, frames);
+        try {
+            env.serveStdio();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Steers for whichever side is more open and slows down for walls ahead,
+    // which gets round most of the time;  the point is to time the env.
+    static void envBench(int envs, int steps, int frames, String track) {
+        RaceEnv env = new RaceEnv(Assets.world(track), envs, 3, RaceEngine.DEFAULT_MAX_FRAMES, frames);
+        int[] actions = new int[envs];
+        double[] obs = env.getObservations();
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            env.reset(run);
+            double reward = 0;
+            int episodes = 0;
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (int s = 0; s < steps; s++) {
+                for (int i = 0; i < envs; i++) {
+                    int k = i * RaceEnv.OBS_SIZE;
+                    boolean left = obs[k + 1] > obs[k + 3];
+                    if (obs[k + 2] < 8 && obs[k + 5] > 6) {
+                        actions[i] = left ? Bot.BRAKE_LEFT : Bot.BRAKE_RIGHT;
+                    } else {
+                        actions[i] = left ? Bot.ACCEL_LEFT : Bot.ACCEL_RIGHT;
+                    }
+                }
+                env.step(actions);
+                double[] rewards = env.getRewards();
+                boolean[] done = env.getDone();
+                for (int i = 0; i < envs; i++) {
+                    reward += rewards[i];
+                    episodes += done[i] ? 1 : 0;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+            System.out.printf("%d envs x %d steps of %d ticks:  %.3f s, %.0f env-steps/s, %d episodes done, "
+                            + "%.2f laps a copy, %d bytes allocated%n",
+                    envs, steps, frames, seconds, (double)envs * steps / seconds, episodes, reward / envs, allocated);
+        }
+    }
+
+    // TrackGenerator.Params from args[from..], defaults for anything missing.
+    private static TrackGenerator.Params trackParams(String[] args, int from) {
+        TrackGenerator.Params p = new TrackGenerator.Params();
+        p.length    = Double.parseDouble(arg(args, from, String.valueOf(p.length)));
+        p.width     = Double.parseDouble(arg(args, from + 1, String.valueOf(p.width)));
+        p.curvature = Double.parseDouble(arg(args, from + 2, String.valueOf(p.curvature)));
+        p.points    = Integer.parseInt(arg(args, from + 3, String.valueOf(p.points)));
+        return p;
+    }
+
+    static void generate(String file, long seed, TrackGenerator.Params p) {
+        long start = System.nanoTime();
+        World world = TrackGenerator.generate(seed, p);
+        double millis = (System.nanoTime() - start) / 1e6;
+        try {
+            TrackGenerator.writePng(world, Paths.get(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.printf("%s:  %s, seed %d, %d x %d blocks, %s, made in %.1f ms%n", file, p, seed,
+                world.getWidth(), world.getHeight(), world.hasProgressField() ? "progress field" : "no progress field",
+                millis);
+    }
+
+    // Race r is on the track TrackGenerator makes from seed r.
+    static void generated(int races, TrackGenerator.Params p, int threads) {
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            RaceResult[] results = new RaceResult[races];
+            long[] makeNanos = new long[races];
+            boolean[] progress = new boolean[races];
+            double seconds = runAll(races, threads, r -> {
+                long start = System.nanoTime();
+                World world = TrackGenerator.generate(r, p);
+                makeNanos[r] = System.nanoTime() - start;
+                progress[r]  = world.hasProgressField();
+                RaceEngine engine = lineup(world, 17, 3);
+                results[r] = engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+            });
+            int finished = 0, withProgress = 0;
+            long make = 0;
+            for (int r = 0; r < races; r++) {
+                finished     += results[r].getWinner() >= 0 ? 1 : 0;
+                withProgress += progress[r] ? 1 : 0;
+                make         += makeNanos[r];
+            }
+            System.out.printf("%d tracks (%s):  %.3f s in all, making tracks %.1f ms each;  %d with a progress "
+                    + "field, %d races won%n", races, p, seconds, make / 1e6 / races, withProgress, finished);
+        }
+    }
+
+    // The tournament on worker JVMs started here (port 0 picks a free port),
+    // then again in this JVM to check the results match race for race.
+    static void coordinator(int workers, int seeds, int port, int kill) {
+        Tournament t = new Tournament(Tournament.TRACKS, BotRegistry.names(), seeds, 3);
+        RaceSpec[] specs = new RaceSpec[t.getRaceCount()];
+        for (int race = 0; race < specs.length; race++) {
+            specs[race] = t.getSpec(race);
+        }
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+        Coordinator c = new Coordinator(specs);
+        ArrayList<Process> processes = new ArrayList<Process>();
+        RaceResult[] results;
+        long start = System.nanoTime();
+        try (ServerSocket server = new ServerSocket(port)) {
+            for (int w = 0; w < workers; w++) {
+                processes.add(Coordinator.launchWorker(server.getLocalPort(), threads, w == 0 ? kill : 0));
+            }
+            results = c.run(server);
+        } catch (IOException e) {
+            System.out.println("woops...coordinator: " + e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            processes.forEach(Process::destroy);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.print(t.standings(results));
+        System.out.printf("%d races on %d workers x %d threads in %.3f s (%.1f races/s, JVM startup included):  "
+                + "%d retried, %d stolen, %d duplicate results, %d failed%n", results.length, workers, threads,
+                seconds, results.length / seconds, c.getRetried(), c.getStolen(), c.getDuplicates(), c.getFailed());
+        for (int race = 0; race < results.length; race++) {
+            if (c.getFailure(race) != null) {
+                System.out.println("woops...race " + race + " failed: " + c.getFailure(race));
+            }
+        }
+
+        RaceResult[] local = t.run(Runtime.getRuntime().availableProcessors());
+        int mismatches = 0;
+        for (int race = 0; race < results.length; race++) {
+            RaceResult a = results[race], b = local[race];
+            if (a == null) {
+                continue;
+            }
+            boolean same = a.getWinner() == b.getWinner() && a.getFinishFrame() == b.getFinishFrame()
+                    && a.getFrames() == b.getFrames();
+            for (int i = 0; i < a.getBotCount(); i++) {
+                same &= a.getLaps(i) == b.getLaps(i) && a.getHealth(i) == b.getHealth(i)
+                        && a.getCrashes(i) == b.getCrashes(i);
+            }
+            mismatches += same ? 0 : 1;
+        }
+        System.out.printf("%d of %d races differ from running them here%n", mismatches,
+                results.length - c.getFailed());
+    }
+
+    static void worker(String host, int port, int threads, int dieAfter) {
+        try {
+            Worker.run(host, port, threads, dieAfter);
+        } catch (EOFException e) {
+            // the coordinator finished without telling us
+        } catch (IOException e) {
+            System.out.println("woops...worker: " + e);
+        }
+    }
+
+    // Compile a StatelessBot (a BotRegistry name or class name) into a table,
+    // then on every track:  race the bot (keeping every reading it acted on),
+    // race the table, and compare.  Disagreement is measured on those readings
+    // and on readings spread evenly over the sensors' ranges;  the per-tick
+    // timing is both of them answering the recorded readings over and over.
+    static void table(String name, int[] bins, int samples) {
+        Bot made = BotRegistry.get(name).create(0, 0, 0);
+        if (!(made instanceof StatelessBot)) {
+            System.out.println("woops..." + name + " isn't a StatelessBot");
+            return;
+        }
+        StatelessBot bot = (StatelessBot)made;
+        long start = System.nanoTime();
+        PolicyTable table = PolicyTable.compile(bot, bins, samples, 1);
+        System.out.printf("%s:  bins %s, %.2f MB, %d samples per cell, compiled in %.3f s%n", made.getName(),
+                Arrays.toString(bins), table.getBytes() / 1e6, samples, (System.nanoTime() - start) / 1e9);
+
+        double[][] readings = { new double[6 * 100000] };
+        int[] count = { 0 };
+        StatelessBot recorder = (d0, d1, d2, d3, d4, speed) -> {
+            if (count[0] + 6 > readings[0].length) {
+                readings[0] = Arrays.copyOf(readings[0], readings[0].length * 2);
+            }
+            double[] r = readings[0];
+            int k = count[0];
+            r[k]     = d0;
+            r[k + 1] = d1;
+            r[k + 2] = d2;
+            r[k + 3] = d3;
+            r[k + 4] = d4;
+            r[k + 5] = speed;
+            count[0] += 6;
+            return bot.getAction(d0, d1, d2, d3, d4, speed);
+        };
+        System.out.printf("  %-12s %-6s %5s %8s %12s%n", "track", "", "laps", "crashes", "finish (s)");
+        for (String track : Tournament.TRACKS) {
+            World world = Assets.world(track);
+            for (int run = 0; run < 2; run++) {
+                RaceEngine engine = new RaceEngine(world, 17, 3);
+                engine.setParticlesEnabled(false);
+                engine.addBot(new PolicyBot(world.getStartX(), world.getStartY(), 0.0, run == 0 ? recorder : table,
+                        made.getName(), made.getColor()));
+                RaceResult r = engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+                System.out.printf("  %-12s %-6s %5d %8d %12s%n", run == 0 ? track : "", run == 0 ? "bot" : "table",
+                        r.getLaps(0), r.getCrashes(0),
+                        r.getWinner() >= 0 ? String.format("%.2f", r.getFinishFrame() * Bot.DT) : "-");
+            }
+        }
+        double[] raced = Arrays.copyOf(readings[0], count[0]);
+
+        Random rand = new Random(2);
+        double[] even = new double[6 * 1000000];
+        for (int k = 0; k < even.length; k += 6) {
+            for (int d = 0; d < 5; d++) {
+                even[k + d] = rand.nextDouble() * PolicyTable.MAX_DIST;
+            }
+            even[k + 5] = rand.nextDouble() * PolicyTable.MAX_SPEED;
+        }
+        System.out.printf("disagreement:  %.2f%% of %d readings from the races, %.2f%% of %d random ones%n",
+                100 * PolicyTable.disagreement(bot, table, raced), raced.length / 6,
+                100 * PolicyTable.disagreement(bot, table, even), even.length / 6);
+
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            double botNanos = timeTicks(bot, raced, 20);
+            double tableNanos = timeTicks(table, raced, 20);
+            System.out.printf("per tick:  bot %.2f ns, table %.2f ns (%.2fx)%n",
+                    botNanos, tableNanos, botNanos / tableNanos);
+        }
+    }
+    private static int sink;  // so the JIT can't drop the timed calls
+    // ns per getAction, over reps passes of readings.
+    private static double timeTicks(StatelessBot policy, double[] readings, int reps) {
+        int sum = 0;
+        long start = System.nanoTime();
+        for (int rep = 0; rep < reps; rep++) {
+            for (int k = 0; k < readings.length; k += 6) {
+                sum += policy.getAction(readings[k], readings[k + 1], readings[k + 2], readings[k + 3],
+                        readings[k + 4], readings[k + 5]);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        sink += sum;
+        return (double)nanos / reps / (readings.length / 6);
+    }
+
+    // A Generic Bot that sleeps for 5 ms on every 50th getAction.
+    static class StallingBot extends Bot {
+        public StallingBot(double x, double y, double angleDegrees) {
+            super(x, y, angleDegrees, "Stalling Bot", Color.RED);
+        }
+        @Override
+        public int getAction(double dist0, double dist1, double dist2, double dist3, double dist4) {
+            if (getCounter() % 50 == 0) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getAction(dist0, dist1, dist2, dist3, dist4);
+        }
+    }
+
+    static void budget(long micros, boolean worker, String track) {
+        World world = Assets.world(track);
+        RaceEngine engine = lineup(world, 17, 3);
+        engine.addBot(new StallingBot(world.getStartX(), world.getStartY(), 0.0));
+        engine.setActionBudget(micros * 1000, worker);
+        long start = System.nanoTime();
+        RaceResult result = engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        engine.setActionBudget(0, false);
+        System.out.print(result);
+        System.out.printf("%d frames in %.3f s, budget %d us %s%n",
+                result.getFrames(), seconds, micros, worker ? "on a worker" : "inline");
+    }
+
+    // Scatter bots over every empty part of the track and time ticks with and
+    // without BOT_COLLISIONS | OPPONENT_SENSOR.  SpatialHashTest checks the
+    // sensor against a brute force search.
+    static void crowd(int count, String track, int ticks) {
+        World world = Assets.world(track);
+        // Bots that get bumped drive differently (and crash at different
+        // times), so the two runs don't do exactly the same work;  the number
+        // still racing at the end is printed to keep that honest.
+        int options = RaceEngine.BOT_COLLISIONS | RaceEngine.OPPONENT_SENSOR;
+        for (int run = 0; run < 3; run++) {  // the first runs warm up the JIT
+            RaceEngine plain = crowdRace(world, count, 0);
+            double plainMs = crowdTicks(plain, ticks);
+            RaceEngine hashed = crowdRace(world, count, options);
+            double hashedMs = crowdTicks(hashed, ticks);
+            System.out.printf("%d bots, %d ticks: %.3f ms/tick plain (%d left), %.3f ms/tick with collisions and sensor (%d left)%n",
+                    count, ticks, plainMs, plain.getBots().size(), hashedMs, hashed.getBots().size());
+        }
+    }
+
+    private static double crowdTicks(RaceEngine engine, int ticks) {
+        long start = System.nanoTime();
+        engine.run(ticks);
+        return (System.nanoTime() - start) / 1e6 / ticks;
+    }
+
+    private static RaceEngine crowdRace(World world, int count, int options) {
+        RaceEngine engine = new RaceEngine(world, 17, Integer.MAX_VALUE);
+        engine.setParticlesEnabled(false);
+        engine.setOptions(options);
+        Random rand = new Random(1);
+        for (int i = 0; i < count; i++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.probe(x, y) < 3);
+            engine.addBot(new Bot(x, y, rand.nextDouble() * 360, "Crowd " + i, Color.WHITE) {
+                @Override
+                public int getAction(double d0, double d1, double d2, double d3, double d4) {
+                    if (d2 > 4) {
+                        return getSpeed() < 6 ? ACCEL : DRIFT;
+                    }
+                    return d1 > d3 ? BRAKE_LEFT : BRAKE_RIGHT;
+                }
+            });
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,256 @@
+package cosmic.lang;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Text for the HUD that doesn't make garbage every frame.  Each line is built
+// in a char[] with the append methods (numbers are written digit by digit, no
+// String.format), and drawn from a GlyphVector that's only laid out again
+// when the line comes out different from last time.  So a HUD whose numbers
+// don't change allocates nothing, and one whose numbers do only pays for the
+// lines that changed.
+//
+// Java2D makes a little garbage of its own on every drawGlyphVector (48
+// bytes a call into a BufferedImage), so a line that comes out the same as
+// last frame is drawn into an image of its own (kept from then on, and
+// drawn over when the line changes), and that's what gets drawn, which makes
+// none.  A line that's just changed is drawn from its glyphs, so one that
+// changes every frame doesn't pay for the image too.  The image is only used
+// when it comes out the same pixels as drawing the text straight on:  plain
+// text (no antialiasing or transform) in an opaque color over SrcOver.
+//
+//     hud.line(0).append("speed: ").append(speed, 3).append(" m/s");
+//     hud.draw(g, 0, x, y);
+class HudText {
+    private static final Color  CLEAR = new Color(0, true);
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+    };
+
+    private final Font        font;
+    private final Line[]      lines;
+    private FontRenderContext frc;  // what the glyph vectors were laid out for
+
+    public HudText(Font font, int lines) {
+        this.font  = font;
+        this.lines = new Line[lines];
+        for (int i = 0; i < lines; i++) {
+            this.lines[i] = new Line();
+        }
+    }
+
+    public int size() {
+        return lines.length;
+    }
+    // Start line i over.  It's compared with what was drawn last when it's drawn.
+    public Line line(int i) {
+        Line l = lines[i];
+        l.length = 0;
+        return l;
+    }
+
+    // Draw line i with its baseline at (x, y), in the current color.
+    public void draw(Graphics g, int i, int x, int y) {
+        Graphics2D g2 = (Graphics2D)g;
+        FontRenderContext context = g2.getFontRenderContext();
+        if (!context.equals(frc)) {
+            frc = context;
+            for (Line l : lines) {
+                l.glyphs = null;
+                l.imaged = false;
+            }
+        }
+        Line l = lines[i];
+        if (l.changed()) {
+            l.glyphs = null;
+        }
+        if (l.length == 0) {
+            return;
+        }
+        if (l.glyphs == null) {
+            l.glyphs = font.layoutGlyphVector(frc, l.shown, 0, l.shownLength, Font.LAYOUT_LEFT_TO_RIGHT);
+            l.imaged = false;
+            l.fresh  = true;
+        } else {
+            l.fresh  = false;
+        }
+        Color color = g2.getColor();
+        if (l.fresh || frc.isTransformed() || frc.isAntiAliased() || g2.getComposite() != AlphaComposite.SrcOver
+                || !(g2.getPaint() instanceof Color) || color.getAlpha() != 255) {
+            g2.drawGlyphVector(l.glyphs, x, y);
+            return;
+        }
+        if (!l.imaged || !color.equals(l.imageColor)) {
+            render(g2, l, color);
+        }
+        g2.drawImage(l.image, x + l.imageX, y + l.imageY, null);
+    }
+    // l's glyphs into l.image, in color.  The image only gets bigger.
+    private static void render(Graphics2D g2, Line l, Color color) {
+        Rectangle r = l.glyphs.getPixelBounds(null, 0, 0);
+        if (l.image == null || l.image.getWidth() < r.width || l.image.getHeight() < r.height) {
+            int w = Math.max(1, Math.max(r.width, l.image != null ? l.image.getWidth() : 0));
+            int h = Math.max(1, Math.max(r.height, l.image != null ? l.image.getHeight() : 0));
+            if (l.imageGraphics != null) {
+                l.imageGraphics.dispose();
+            }
+            l.image = g2.getDeviceConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+            l.imageGraphics = l.image.createGraphics();
+            l.imageGraphics.setBackground(CLEAR);
+        }
+        Graphics2D ig = l.imageGraphics;
+        ig.clearRect(0, 0, l.image.getWidth(), l.image.getHeight());
+        ig.setColor(color);
+        ig.drawGlyphVector(l.glyphs, -r.x, -r.y);
+        l.imageX     = r.x;
+        l.imageY     = r.y;
+        l.imageColor = color;
+        l.imaged     = true;
+    }
+    // Lines 0..size()-1 going down from (x, y), spacing apart.
+    public void drawAll(Graphics g, int x, int y, int spacing) {
+        for (int i = 0; i < lines.length; i++, y += spacing) {
+            draw(g, i, x, y);
+        }
+    }
+
+    static class Line {
+        private char[]        chars = new char[32];  // being written
+        private int           length;
+        private char[]        shown = new char[32];  // what glyphs is for
+        private int           shownLength;
+        private GlyphVector   glyphs;
+        private BufferedImage image;           // see render
+        private Graphics2D    imageGraphics;
+        private boolean       imaged;          // image has glyphs in imageColor
+        private Color         imageColor;
+        private int           imageX, imageY;  // where image goes from the baseline origin
+        private boolean       fresh;           // glyphs were laid out for this draw
+
+        public int length() {
+            return length;
+        }
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+        public Line append(char c) {
+            ensure(length + 1);
+            chars[length++] = c;
+            return this;
+        }
+        public Line append(String s) {
+            if (s == null) {
+                s = "null";
+            }
+            ensure(length + s.length());
+            s.getChars(0, s.length(), chars, length);
+            length += s.length();
+            return this;
+        }
+        public Line append(long v) {
+            if (v == Long.MIN_VALUE) {
+                return append("-9223372036854775808");
+            }
+            if (v < 0) {
+                append('-');
+                v = -v;
+            }
+            int digits = 1;
+            for (long t = v; t >= 10; t /= 10) {
+                digits++;
+            }
+            ensure(length + digits);
+            for (int k = length + digits - 1; k >= length; k--) {
+                chars[k] = (char)('0' + v % 10);
+                v /= 10;
+            }
+            length += digits;
+            return this;
+        }
+        // Like String.format("%.<decimals>f", v), for up to 9 decimals.  Rounds
+        // half up from the double's exact value, so a number that prints as a
+        // tie (4.0135) can come out a digit lower in the last place than
+        // String.format gives.  Nobody reads a HUD that closely.
+        public Line append(double v, int decimals) {
+            if (Double.isNaN(v)) {
+                return append("NaN");
+            }
+            if (Double.isInfinite(v)) {
+                return append(v > 0 ? "Infinity" : "-Infinity");
+            }
+            if (v < 0 || (v == 0 && 1 / v < 0)) {
+                append('-');
+                v = -v;
+            }
+            long scale = POW10[decimals];
+            if (v * scale >= Long.MAX_VALUE) {
+                return append(Double.toString(v));  // nobody has a HUD number this big
+            }
+            long n = Math.round(v * scale);
+            append(n / scale);
+            if (decimals > 0) {
+                append('.');
+                long frac = n % scale;
+                for (long p = scale / 10; p > 0; p /= 10) {
+                    append((char)('0' + frac / p % 10));
+                }
+            }
+            return this;
+        }
+        // Spaces up to column, like the width in "%-14s".
+        public Line padTo(int column) {
+            while (length < column) {
+                append(' ');
+            }
+            return this;
+        }
+        // Right-justify what was written since from in width columns, like "%5d".
+        public Line alignRight(int from, int width) {
+            int pad = width - (length - from);
+            if (pad > 0) {
+                ensure(length + pad);
+                System.arraycopy(chars, from, chars, from + pad, length - from);
+                for (int k = from; k < from + pad; k++) {
+                    chars[k] = ' ';
+                }
+                length += pad;
+            }
+            return this;
+        }
+
+        // Whether what was written differs from what's shown;  if it does it's
+        // shown from now on.
+        private boolean changed() {
+            if (length == shownLength) {
+                boolean same = true;
+                for (int k = 0; k < length && same; k++) {
+                    same = chars[k] == shown[k];
+                }
+                if (same) {
+                    return false;
+                }
+            }
+            char[] t = shown;
+            shown       = chars;
+            shownLength = length;
+            chars       = (t.length >= shown.length) ? t : new char[shown.length];
+            System.arraycopy(shown, 0, chars, 0, length);
+            return true;
+        }
+        private void ensure(int capacity) {
+            if (capacity > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package cosmic.lang;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// The numbers a tunable bot is built from (see MyBot.Params):  a name and a
+// range for each gene, and whether it only takes whole values.
+class ParamSpace {
+    private final String[]  names;
+    private final double[]  min, max;
+    private final boolean[] integer;
+
+    public ParamSpace(int genes) {
+        names   = new String[genes];
+        min     = new double[genes];
+        max     = new double[genes];
+        integer = new boolean[genes];
+    }
+    public void set(int gene, String name, double min, double max, boolean integer) {
+        this.names[gene]   = name;
+        this.min[gene]     = min;
+        this.max[gene]     = max;
+        this.integer[gene] = integer;
+    }
+    public int size() {
+        return names.length;
+    }
+    public String getName(int gene) {
+        return names[gene];
+    }
+    public double getMin(int gene) {
+        return min[gene];
+    }
+    public double getMax(int gene) {
+        return max[gene];
+    }
+    public boolean isInteger(int gene) {
+        return integer[gene];
+    }
+    // Keep a gene in range, and whole if it has to be.
+    public double clamp(int gene, double v) {
+        if (integer[gene]) {
+            v = Math.round(v);
+        }
+        return Math.max(min[gene], Math.min(max[gene], v));
+    }
+    public double random(int gene, Random rand) {
+        if (integer[gene]) {
+            return min[gene] + rand.nextInt((int)(max[gene] - min[gene]) + 1);
+        }
+        return min[gene] + rand.nextDouble() * (max[gene] - min[gene]);
+    }
+}
+
+// Builds a bot from a genome, e.g. genes -> MyBot with MyBot.Params.fromGenes(genes).
+interface GenomeFactory {
+    BotFactory create(double[] genes);
+}
+
+// Evolves a tunable bot's parameters by racing it headlessly.  Each genome
+// races alone on every track (alone because bots don't interact unless
+// RaceEngine's options are on, and the seed only moves particles, so one race
+// per track says everything).  Scores add up over the tracks:
+//     LAP_POINTS per lap + HEALTH_POINTS per health left
+//     + frames to spare under maxFrames if it finished
+// so finishing beats not finishing, and then faster beats slower.
+//
+// Every generation keeps the ELITE best as they are and fills the rest with
+// children of tournament-selected parents:  uniform crossover, then each gene
+// mutates with probability mutationRate (gaussian, sigma a tenth of its
+// range;  whole genes sometimes jump to any value).  Races run on a
+// ForkJoinPool like Tournament's, and everything random happens on the
+// calling thread, so a run depends only on its seed, not on the thread count.
+class Optimizer {
+    public static final int    LAP_POINTS    = 10000;
+    public static final int    HEALTH_POINTS = 500;
+    public static final int    ELITE         = 2;
+    public static final int    TOURNAMENT    = 3;
+    public static final double MUTATION_SIGMA = 0.1;  // of each gene's range
+
+    private final ParamSpace    space;
+    private final GenomeFactory factory;
+    private final World[]       worlds;
+    private final int           lapsNeeded;
+    private final int           maxFrames;
+    private final Random        rand;
+    private final double        mutationRate;
+    private double[][]          population;
+    private double[]            scores;    // same order as population, NaN until raced
+    private int                 generation;
+    private double              lastMean;  // mean score of the last generation raced
+    private long                races;     // races run so far
+
+    // Starts from the given genome, some mutants of it and some random ones.
+    public Optimizer(ParamSpace space, GenomeFactory factory, double[] start, World[] worlds,
+                     int lapsNeeded, int maxFrames, int populationSize, long seed) {
+        this.space        = space;
+        this.factory      = factory;
+        this.worlds       = worlds;
+        this.lapsNeeded   = lapsNeeded;
+        this.maxFrames    = maxFrames;
+        this.rand         = new Random(seed);
+        this.mutationRate = 2.0 / space.size();
+        population = new double[populationSize][];
+        scores     = new double[populationSize];
+        Arrays.fill(scores, Double.NaN);
+        population[0] = start.clone();
+        for (int i = 1; i < populationSize; i++) {
+            if (i < populationSize / 2) {
+                population[i] = mutate(start.clone());
+            } else {
+                population[i] = new double[space.size()];
+                for (int g = 0; g < space.size(); g++) {
+                    population[i][g] = space.random(g, rand);
+                }
+            }
+        }
+    }
+
+    // One genome's total over every track.
+    public double evaluate(double[] genes) {
+        BotFactory f = factory.create(genes);
+        double score = 0;
+        for (World world : worlds) {
+            RaceEngine engine = new RaceEngine(world, 17, lapsNeeded);
+            engine.setParticlesEnabled(false);
+            engine.addBot(f.create(world.getStartX(), world.getStartY(), 0.0));
+            score += score(engine.run(maxFrames));
+        }
+        return score;
+    }
+    private double score(RaceResult r) {
+        double s = r.getLaps(0) * LAP_POINTS + Math.max(0, r.getHealth(0)) * HEALTH_POINTS;
+        if (r.getWinner() == 0) {
+            s += maxFrames - r.getFinishFrame();
+        }
+        return s;
+    }
+
+    // Race everyone that hasn't been yet (in parallel), then breed the next
+    // generation.  Returns the best score of the generation that just raced.
+    public double nextGeneration(int threads) {
+        raceAll(threads);
+        Integer[] order = ranking();
+        double best = scores[order[0]];
+        lastMean = Arrays.stream(scores).average().orElse(Double.NaN);
+
+        double[][] next   = new double[population.length][];
+        double[]   scored = new double[population.length];
+        Arrays.fill(scored, Double.NaN);
+        for (int i = 0; i < ELITE && i < next.length; i++) {
+            next[i]   = population[order[i]];
+            scored[i] = scores[order[i]];
+        }
+        for (int i = ELITE; i < next.length; i++) {
+            double[] a = population[select()];
+            double[] b = population[select()];
+            double[] child = new double[space.size()];
+            for (int g = 0; g < child.length; g++) {
+                child[g] = rand.nextBoolean() ? a[g] : b[g];
+            }
+            next[i] = mutate(child);
+        }
+        population = next;
+        scores     = scored;
+        generation++;
+        return best;
+    }
+
+    private void raceAll(int threads) {
+        int[] todo = IntStream.range(0, population.length).filter(i -> Double.isNaN(scores[i])).toArray();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> Arrays.stream(todo).parallel()
+                    .forEach(i -> scores[i] = evaluate(population[i]))).join();
+        } finally {
+            pool.shutdown();
+        }
+        races += (long)todo.length * worlds.length;
+    }
+
+    // Best first;  ties keep population order.
+    private Integer[] ranking() {
+        Integer[] order = new Integer[population.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        return order;
+    }
+
+    private int select() {
+        int best = rand.nextInt(population.length);
+        for (int k = 1; k < TOURNAMENT; k++) {
+            int i = rand.nextInt(population.length);
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private double[] mutate(double[] genes) {
+        for (int g = 0; g < genes.length; g++) {
+            if (rand.nextDouble() >= mutationRate) {
+                continue;
+            }
+            if (space.isInteger(g) && rand.nextInt(4) == 0) {
+                genes[g] = space.random(g, rand);
+            } else {
+                double sigma = MUTATION_SIGMA * (space.getMax(g) - space.getMin(g));
+                genes[g] = space.clamp(g, genes[g] + rand.nextGaussian() * Math.max(sigma, 1e-9));
+            }
+        }
+        return genes;
+    }
+
+    // Only meaningful right after nextGeneration (the elite have scores, the
+    // rest haven't raced yet).
+    public double[] getBest() {
+        return population[0].clone();
+    }
+    public double getBestScore() {
+        return scores[0];
+    }
+    public double getMeanScore() {
+        return lastMean;
+    }
+    public int getGeneration() {
+        return generation;
+    }
+    public long getRaces() {
+        return races;
+    }
+}
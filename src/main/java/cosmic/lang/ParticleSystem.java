@@ -0,0 +1,98 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+// All the explosion particles, kept in plain arrays rather than one object
+// each.  Live particles are always packed into [0, count):  an expired one is
+// replaced by the last one, so removal is O(1) and nothing is allocated once
+// the arrays are big enough.
+class ParticleSystem {
+    // Particles change color and shrink as they age.  Bucket k is drawn for
+    // counter > BUCKET_MIN[k] (and not in an earlier bucket).
+    private static final int[]   BUCKET_MIN   = { 50, 40, 30, 20, Integer.MIN_VALUE };
+    private static final Color[] BUCKET_COLOR = { Color.WHITE, Color.YELLOW, Color.RED, Color.DARK_GRAY, Color.BLACK };
+    private static final int[]   BUCKET_SIZE  = { 5, 5, 4, 3, 2 };
+
+    private double[] x, y, vx, vy;
+    private int[]    counter;
+    private int      count;
+
+    public ParticleSystem() {
+        this(256);
+    }
+    public ParticleSystem(int capacity) {
+        x       = new double[capacity];
+        y       = new double[capacity];
+        vx      = new double[capacity];
+        vy      = new double[capacity];
+        counter = new int[capacity];
+    }
+
+    public void add(double x, double y, double vx, double vy, int lifetime) {
+        if (count == counter.length) {
+            grow();
+        }
+        this.x[count]       = x;
+        this.y[count]       = y;
+        this.vx[count]      = vx;
+        this.vy[count]      = vy;
+        this.counter[count] = lifetime;
+        count++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, counter.length * 2);
+        x       = Arrays.copyOf(x, capacity);
+        y       = Arrays.copyOf(y, capacity);
+        vx      = Arrays.copyOf(vx, capacity);
+        vy      = Arrays.copyOf(vy, capacity);
+        counter = Arrays.copyOf(counter, capacity);
+    }
+
+    // Move every particle one tick and drop the ones that have expired.
+    public void update() {
+        int i = 0;
+        while (i < count) {
+            x[i] += vx[i] * Bot.DT;
+            y[i] += vy[i] * Bot.DT;
+            counter[i]--;
+            vx[i] *= .98;
+            vy[i] *= .98;
+            if (counter[i] <= 0) {
+                // Move the last one in here; it gets updated on the next pass of the loop.
+                count--;
+                x[i]       = x[count];
+                y[i]       = y[count];
+                vx[i]      = vx[count];
+                vy[i]      = vy[count];
+                counter[i] = counter[count];
+            } else {
+                i++;
+            }
+        }
+    }
+
+    // One setColor per bucket instead of one per particle.
+    public void draw(Graphics g) {
+        for (int k = 0; k < BUCKET_MIN.length; k++) {
+            int min  = BUCKET_MIN[k];
+            int max  = (k == 0) ? Integer.MAX_VALUE : BUCKET_MIN[k - 1];
+            int size = BUCKET_SIZE[k];
+            g.setColor(BUCKET_COLOR[k]);
+            for (int i = 0; i < count; i++) {
+                if (counter[i] > min && counter[i] <= max) {
+                    g.fillRect((int)(World.PX_METER * x[i] - size / 2.0), (int)(World.PX_METER * y[i] - size / 2.0), size, size);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+    public void clear() {
+        count = 0;
+    }
+}
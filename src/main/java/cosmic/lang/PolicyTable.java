@@ -0,0 +1,252 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+// A bot whose action depends only on what it sees this tick:  the five
+// distances and its speed, nothing it remembers.  Opting in means the
+// six-argument getAction is a pure function (no fields read or written, safe
+// to call from several threads at once), which is what lets PolicyTable
+// compile it.  A Bot that implements this should answer its usual getAction
+// with getAction(dist0, ..., dist4, getSpeed()), like CruiseBot does.
+interface StatelessBot {
+    int getAction(double dist0, double dist1, double dist2, double dist3, double dist4, double speed);
+}
+
+// A StatelessBot's decisions, worked out ahead of time for a grid of sensor
+// readings and looked up instead of asked for.  Each of the six inputs
+// (dist0 .. dist4, speed) is cut into its own number of bins, 1 for an input
+// the bot doesn't look at.  The table holds one byte (Bot.DRIFT ..
+// Bot.SLIGHT_LEFT) per cell, the product of the bin counts, which grows fast
+// with every input that's binned, so only bin finely what the bot uses.
+// Anything past the ends of an input's range goes in the end bins.
+//
+// Bots drive right along their own thresholds (a bot that brakes above some
+// speed spends its turns at that speed), and a cell that straddles one
+// disagrees with the bot about half the time there.  So compile first probes
+// the bot along each input and puts a bin edge wherever its action flips in
+// at least THRESHOLD_SHARE of the probes;  the rest of the bins are spread
+// evenly in sqrt(input), i.e. finer close to walls and at low speed.
+//
+// Each cell's action is what the bot does most often over samplesPerCell
+// points in the cell (its center when that's 1).  Where the bot's answer
+// changes inside a cell anyway the table can only give one of them;
+// disagreement() says how often that matters, on whatever readings it's
+// given.
+//
+// Edges sit on a grid of SLOTS_PER_UNIT per meter (or m/s), so finding a
+// reading's cell is an array read per input:  each input has the (already
+// strided) cell offset of every slot.
+//
+// The table is a StatelessBot itself, so PolicyBot can race it.
+//
+// It's only worth it for a bot whose getAction costs more than a lookup.
+// CruiseBot doesn't:  with bins 1,32,16,32,1,16 (0.26 MB) a lookup runs
+// 0.14x-0.9x as fast as asking CruiseBot, and the table gets about a fifth of
+// its race readings wrong (nearly all where dist1 and dist3 nearly match) and
+// no laps on World2.  'table' in Headless measures all of that for any bot.
+class PolicyTable implements StatelessBot {
+    public static final double   MAX_DIST        = Bot.SCAN_MAX_DIST;
+    public static final double   MAX_SPEED       = 25.0;  // m/s;  faster goes in the top bin
+    public static final int      ACTIONS         = Bot.SLIGHT_LEFT + 1;
+    public static final int      SLOTS_PER_UNIT  = 16;
+    public static final int      PROBES          = 2000;  // per input, looking for thresholds
+    public static final double   THRESHOLD_SHARE = 0.05;
+    private static final int     DIST_SLOTS      = (int)(MAX_DIST * SLOTS_PER_UNIT) + 1;
+    private static final int     SPEED_SLOTS     = (int)(MAX_SPEED * SLOTS_PER_UNIT) + 1;
+    private static final int[]   SLOTS           = { DIST_SLOTS, DIST_SLOTS, DIST_SLOTS, DIST_SLOTS, DIST_SLOTS,
+                                                     SPEED_SLOTS };
+    private static final int     SPEED_BASE      = 5 * DIST_SLOTS;  // where speed's slots start in offsets
+
+    private final int[][] edges;    // per input, bins + 1 slots:  where each bin starts, then the end
+    private final int[]   offsets;  // every input's slots one after the other:  bin * stride
+    private final byte[]  actions;
+
+    private PolicyTable(int[][] edges) {
+        this.edges = edges;
+        offsets = new int[SPEED_BASE + SPEED_SLOTS];
+        int stride = 1;
+        for (int axis = 5, base = SPEED_BASE; axis >= 0; base -= (axis > 0 ? SLOTS[axis - 1] : 0), axis--) {
+            int[] e = edges[axis];
+            for (int b = 0; b + 1 < e.length; b++) {
+                for (int slot = e[b]; slot < e[b + 1]; slot++) {
+                    offsets[base + slot] = b * stride;
+                }
+            }
+            stride = Math.multiplyExact(stride, e.length - 1);
+        }
+        actions = new byte[stride];
+    }
+
+    // Ask bot about every cell.  bins is how many bins for dist0 .. dist4 and
+    // speed.  The cells are split up by dist0's bin over the common
+    // ForkJoinPool, which is fine since a StatelessBot doesn't mind.
+    public static PolicyTable compile(StatelessBot bot, int[] bins, int samplesPerCell, long seed) {
+        if (bins.length != 6) {
+            throw new IllegalArgumentException("Need bins for dist0 .. dist4 and speed");
+        }
+        int[][] edges = new int[6][];
+        for (int axis = 0; axis < 6; axis++) {
+            if (bins[axis] < 1 || bins[axis] > SLOTS[axis]) {
+                throw new IllegalArgumentException("Bad bin count: " + bins[axis]);
+            }
+            edges[axis] = edges(bins[axis], SLOTS[axis], bins[axis] > 1 ? thresholds(bot, axis, seed) : new int[0]);
+        }
+        PolicyTable table = new PolicyTable(edges);
+        byte[] actions = table.actions;
+        int perBin = actions.length / bins[0];
+        IntStream.range(0, bins[0]).parallel().forEach(b0 -> {
+            Random rand = new Random(seed + b0);
+            int[] votes = new int[ACTIONS];
+            double[] in = new double[6];
+            boolean center = samplesPerCell <= 1;
+            for (int cell = b0 * perBin; cell < (b0 + 1) * perBin; cell++) {
+                Arrays.fill(votes, 0);
+                for (int n = 0; n < Math.max(1, samplesPerCell); n++) {
+                    for (int axis = 5, c = cell; axis >= 0; axis--) {
+                        int[] e = edges[axis];
+                        int b = c % (e.length - 1);
+                        c /= e.length - 1;
+                        double f = center ? 0.5 : rand.nextDouble();
+                        in[axis] = (e[b] + f * (e[b + 1] - e[b])) / SLOTS_PER_UNIT;
+                    }
+                    votes[check(bot.getAction(in[0], in[1], in[2], in[3], in[4], in[5]))]++;
+                }
+                int best = 0;
+                for (int a = 1; a < ACTIONS; a++) {
+                    if (votes[a] > votes[best]) {
+                        best = a;
+                    }
+                }
+                actions[cell] = (byte)best;
+            }
+        });
+        return table;
+    }
+
+    private static int check(int action) {
+        if (action < 0 || action >= ACTIONS) {
+            throw new IllegalStateException("No such action: " + action);
+        }
+        return action;
+    }
+
+    // Slots where bot's action flips, going along axis from random readings,
+    // in at least THRESHOLD_SHARE of PROBES;  most often first.
+    private static int[] thresholds(StatelessBot bot, int axis, long seed) {
+        Random rand = new Random(seed ^ (axis + 1) * 0x9E3779B97F4A7C15L);
+        int slots = SLOTS[axis];
+        int[] flips = new int[slots];
+        double[] in = new double[6];
+        for (int p = 0; p < PROBES; p++) {
+            for (int k = 0; k < 6; k++) {
+                double r = rand.nextDouble();
+                in[k] = r * r * (SLOTS[k] - 1) / SLOTS_PER_UNIT;
+            }
+            int last = -1;
+            for (int slot = 0; slot < slots; slot++) {
+                in[axis] = (slot + 0.5) / SLOTS_PER_UNIT;
+                int a = check(bot.getAction(in[0], in[1], in[2], in[3], in[4], in[5]));
+                if (last >= 0 && a != last) {
+                    flips[slot]++;
+                }
+                last = a;
+            }
+        }
+        return IntStream.range(1, slots).filter(slot -> flips[slot] >= THRESHOLD_SHARE * PROBES).boxed()
+                .sorted((x, y) -> flips[y] - flips[x]).mapToInt(Integer::intValue).toArray();
+    }
+
+    // bins + 1 slots:  as many of the thresholds as fit, and sqrt spacing
+    // for the rest (skipping any that land on a slot that's taken).
+    private static int[] edges(int bins, int slots, int[] thresholds) {
+        TreeSet<Integer> starts = new TreeSet<Integer>();
+        starts.add(0);
+        for (int k = 0; k < thresholds.length && starts.size() < bins; k++) {
+            starts.add(thresholds[k]);
+        }
+        // Enough sqrt-spaced candidates to fill up, finer until it does.
+        for (int n = bins; starts.size() < bins && n <= 4 * slots; n *= 2) {
+            for (int k = 1; k < n && starts.size() < bins; k++) {
+                double f = (double)k / n;
+                starts.add((int)Math.round(f * f * (slots - 1)));
+            }
+        }
+        for (int slot = 1; starts.size() < bins; slot++) {
+            starts.add(slot);
+        }
+        int[] e = new int[bins + 1];
+        int b = 0;
+        for (int slot : starts) {
+            e[b++] = slot;
+        }
+        e[bins] = slots;
+        return e;
+    }
+
+    private static int slot(double v, int slots) {
+        int slot = (int)(v * SLOTS_PER_UNIT);
+        return slot < 0 ? 0 : slot < slots ? slot : slots - 1;
+    }
+
+    @Override
+    public int getAction(double dist0, double dist1, double dist2, double dist3, double dist4, double speed) {
+        return actions[offsets[slot(dist0, DIST_SLOTS)]
+                + offsets[DIST_SLOTS + slot(dist1, DIST_SLOTS)]
+                + offsets[2 * DIST_SLOTS + slot(dist2, DIST_SLOTS)]
+                + offsets[3 * DIST_SLOTS + slot(dist3, DIST_SLOTS)]
+                + offsets[4 * DIST_SLOTS + slot(dist4, DIST_SLOTS)]
+                + offsets[SPEED_BASE + slot(speed, SPEED_SLOTS)]];
+    }
+
+    public int[] getBins() {
+        int[] bins = new int[6];
+        for (int axis = 0; axis < 6; axis++) {
+            bins[axis] = edges[axis].length - 1;
+        }
+        return bins;
+    }
+    // Where input axis's bins start, in its units.
+    public double[] getEdges(int axis) {
+        double[] e = new double[edges[axis].length - 1];
+        for (int b = 0; b < e.length; b++) {
+            e[b] = (double)edges[axis][b] / SLOTS_PER_UNIT;
+        }
+        return e;
+    }
+    public int getBytes() {
+        return actions.length;
+    }
+
+    // How often a and b pick different actions over readings, six doubles
+    // (dist0 .. dist4, speed) per reading.
+    public static double disagreement(StatelessBot a, StatelessBot b, double[] readings) {
+        int n = readings.length / 6;
+        int differ = 0;
+        for (int i = 0, k = 0; i < n; i++, k += 6) {
+            double d0 = readings[k], d1 = readings[k + 1], d2 = readings[k + 2], d3 = readings[k + 3];
+            double d4 = readings[k + 4], speed = readings[k + 5];
+            if (a.getAction(d0, d1, d2, d3, d4, speed) != b.getAction(d0, d1, d2, d3, d4, speed)) {
+                differ++;
+            }
+        }
+        return n > 0 ? (double)differ / n : 0;
+    }
+}
+
+// Races any StatelessBot, e.g. a PolicyTable.
+class PolicyBot extends Bot {
+    private final StatelessBot policy;
+
+    public PolicyBot(double x, double y, double angleDegrees, StatelessBot policy, String name, Color color) {
+        super(x, y, angleDegrees, name, color);
+        this.policy = policy;
+    }
+    @Override
+    public int getAction(double dist0, double dist1, double dist2, double dist3, double dist4) {
+        return policy.getAction(dist0, dist1, dist2, dist3, dist4, getSpeed());
+    }
+}
@@ -0,0 +1,284 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Cheap timing for the parts of a frame, to see what's behind a stutter.
+// Callers bracket a section with start()/end(); each section has a
+// LatencyHistogram that any thread can record into without locking.  Once a
+// second a background thread takes the last second's numbers out of the
+// histograms:  they're what the overlay shows (MainGame, F3), and they're
+// appended to a CSV if one was given to startReporting.
+class Profiler {
+    // Sections.  Nested ones are included in the ones they're inside of.
+    public static final int
+            FRAME = 0,            // time between frames (GameLoop only)
+            TICK = 1,             // GameBase.tick:  input + update
+            INPUT = 2,            //   draining the input queue
+            ENGINE = 3,           //   RaceEngine.step
+            BOTS = 4,             //     every Bot.update
+            ACTIONS = 5,          //       each getAction call, per bot
+            COLLISIONS = 6,       //     opponent sensor and bot collisions
+            PARTICLES = 7,        //     particle update
+            RECORD = 8,           //     RaceRecorder
+            PAINT = 9,            // MainGame.render
+            PAINT_TRACK = 10,     //   track layer
+            PAINT_BOTS = 11,      //   bots and the selected bot's details
+            PAINT_PARTICLES = 12, //   particles
+            PAINT_HUD = 13;       //   text, this overlay
+    static final String[] NAMES = {
+            "frame", "tick", "input", "engine", "bots", "getAction", "collisions",
+            "particles", "record", "paint", "paint.track", "paint.bots", "paint.particles", "paint.hud",
+    };
+    public static final double REPORT_SECONDS = 1.0;
+    // For code that takes a Profiler but isn't being profiled.
+    public static final Profiler NONE = new Profiler(false);
+
+    private static final Font font = new Font(Font.MONOSPACED, Font.BOLD, 14);
+
+    private final boolean            enabled;
+    private final LatencyHistogram[] histograms;
+    private final long[][]           last;       // per section:  count, p50, p99, max (ns) over the last report
+    private String[]                 shown;      // lines() as of the last report, for draw
+    private volatile Thread          reporter;
+    private BufferedWriter           csv;
+    private final long               started;
+
+    public Profiler() {
+        this(true);
+    }
+    private Profiler(boolean enabled) {
+        this.enabled = enabled;
+        histograms = new LatencyHistogram[NAMES.length];
+        last       = new long[NAMES.length][4];
+        for (int s = 0; s < NAMES.length; s++) {
+            histograms[s] = new LatencyHistogram();
+        }
+        started = System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    // long t = profiler.start();  ...  profiler.end(SECTION, t);
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+    public void end(int section, long start) {
+        if (enabled) {
+            histograms[section].record(System.nanoTime() - start);
+        }
+    }
+    public void record(int section, long nanos) {
+        if (enabled) {
+            histograms[section].record(nanos);
+        }
+    }
+
+    // Report every REPORT_SECONDS from a daemon thread, appending to csvFile
+    // too if it's not null.
+    public void startReporting(Path csvFile) {
+        if (!enabled || reporter != null) {
+            return;
+        }
+        if (csvFile != null) {
+            try {
+                boolean fresh = !Files.exists(csvFile);
+                csv = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (fresh) {
+                    csv.write("time_s,section,count,p50_us,p99_us,max_us");
+                    csv.newLine();
+                }
+            } catch (IOException e) {
+                System.out.println("woops...can't write profile to " + csvFile + ": " + e);
+                csv = null;
+            }
+        }
+        Thread t = new Thread(() -> {
+            long period = (long)(REPORT_SECONDS * 1000);
+            while (reporter == Thread.currentThread()) {
+                try {
+                    Thread.sleep(period);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                report();
+            }
+        }, "Profiler");
+        t.setDaemon(true);
+        reporter = t;
+        t.start();
+    }
+
+    // Stops the thread after one last report.
+    public void stopReporting() {
+        Thread t = reporter;
+        reporter = null;
+        if (t == null) {
+            return;
+        }
+        t.interrupt();
+        report();
+        synchronized (this) {
+            try {
+                if (csv != null) {
+                    csv.close();
+                    csv = null;
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+    }
+
+    // Move what's been recorded since last time into the report (and CSV).
+    synchronized void report() {
+        double time = (System.nanoTime() - started) / 1e9;
+        for (int s = 0; s < NAMES.length; s++) {
+            long[] snapshot = last[s];
+            histograms[s].drainInto(snapshot);
+            if (csv != null && snapshot[0] > 0) {
+                try {
+                    csv.write(String.format("%.1f,%s,%d,%.1f,%.1f,%.1f", time, NAMES[s], snapshot[0],
+                            snapshot[1] / 1e3, snapshot[2] / 1e3, snapshot[3] / 1e3));
+                    csv.newLine();
+                } catch (IOException e) {
+                    System.out.println("woops...profile CSV: " + e);
+                    csv = null;
+                }
+            }
+        }
+        shown = lines();
+        if (csv != null) {
+            try {
+                csv.flush();
+            } catch (IOException e) {
+                csv = null;
+            }
+        }
+    }
+
+    // Last report for a section:  {count, p50, p99, max}, times in ns.
+    public synchronized long[] getLast(int section) {
+        return last[section].clone();
+    }
+
+    // The last report as a table, one line per section plus a header.
+    public synchronized String[] lines() {
+        String[] lines = new String[NAMES.length + 1];
+        lines[0] = String.format("%-16s %6s %8s %8s %8s", "section (us)", "n/s", "p50", "p99", "max");
+        for (int s = 0; s < NAMES.length; s++) {
+            long[] r = last[s];
+            lines[s + 1] = String.format("%-16s %6d %8.1f %8.1f %8.1f", NAMES[s],
+                    Math.round(r[0] / REPORT_SECONDS), r[1] / 1e3, r[2] / 1e3, r[3] / 1e3);
+        }
+        return lines;
+    }
+
+    // lines() on a dark box, top left corner at (x, y).  They only change
+    // once a report, so they're only formatted then.
+    public void draw(Graphics g, int x, int y) {
+        String[] lines;
+        synchronized (this) {
+            if (shown == null) {
+                shown = lines();
+            }
+            lines = shown;
+        }
+        g.setFont(font);
+        g.setColor(new Color(0, 0, 0, 170));
+        g.fillRect(x - 6, y - 16, 430, 18 * lines.length + 8);
+        g.setColor(Color.WHITE);
+        for (String line : lines) {
+            g.drawString(line, x, y);
+            y += 18;
+        }
+    }
+}
+
+// Log-bucketed histogram of nanosecond times, in the style of HdrHistogram:
+// each power of two is split into SUB linear buckets, so every value lands in
+// a bucket within 1/SUB (~3%) of it.  Recording is one atomic increment (plus
+// a CAS when there's a new max), so any number of threads can record at once.
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB      = 1 << SUB_BITS;
+    private static final int BUCKETS  = (64 - SUB_BITS) << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong      max    = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    static int bucket(long v) {
+        if (v < SUB) {
+            return (int)v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int)((v >>> shift) - SUB);
+    }
+    // Middle of the range of values that land in bucket b.
+    static long value(int b) {
+        if (b < SUB) {
+            return b;
+        }
+        int shift = (b >>> SUB_BITS) - 1;
+        long low = (long)((b & (SUB - 1)) + SUB) << shift;
+        return low + ((1L << shift) >>> 1);
+    }
+
+    // Take everything recorded so far out of the histogram, leaving it empty,
+    // and put count, p50, p99 and max in out[0..3].  Values recorded while
+    // this runs end up in this report or the next one.
+    public void drainInto(long[] out) {
+        long[] taken = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            long c = counts.get(b);
+            if (c != 0) {
+                counts.addAndGet(b, -c);
+                taken[b] = c;
+                total += c;
+            }
+        }
+        // Bucket midpoints can be a bit over the real max.
+        out[3] = max.getAndSet(0);
+        out[0] = total;
+        out[1] = Math.min(out[3], percentile(taken, total, 0.50));
+        out[2] = Math.min(out[3], percentile(taken, total, 0.99));
+    }
+
+    private static long percentile(long[] counts, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long)Math.ceil(p * total);
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return value(b);
+            }
+        }
+        return 0;
+    }
+}
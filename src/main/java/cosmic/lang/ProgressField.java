@@ -0,0 +1,98 @@
+package cosmic.lang;
+
+import java.util.Arrays;
+
+// How far around the track each block is, for World.getProgress.  The start
+// line is the one lap counting has always used:  straight up from the center,
+// crossed left to right (quadrant 3 to 0).  A shortest-path search spreads
+// out from the blocks just right of the line and isn't allowed to cross it,
+// so it goes all the way around and reaches the blocks just left of the line
+// last;  their distance is the lap length.  Distances are 5 per straight step
+// and 7 per diagonal one (close enough to 1 : sqrt(2)), so Dial's algorithm
+// with 8 buckets does the search in linear time.
+//
+// The result is a fraction of a lap per block, in units of 1 / UNITS, or
+// UNKNOWN for solid blocks and anything the search didn't reach.  null if
+// there's no way around (the center is off the map, or the line cuts the
+// track in two).
+class ProgressField {
+    public static final int  UNITS   = 65535;
+    public static final char UNKNOWN = 0xFFFF;
+    private static final int STRAIGHT = 5, DIAGONAL = 7;
+    private static final int BUCKETS  = 8;  // more than DIAGONAL
+
+    static char[] build(int width, int height, long[] solid, double centerX, double centerY) {
+        int stride = (width + 63) >>> 6;
+        int jc = (int)(World.PX_METER * centerX / World.SIZE);  // first column right of the line
+        int ic = (int)(World.PX_METER * centerY / World.SIZE);  // the line is rows 0..ic
+        if (jc <= 0 || jc >= width || ic < 0 || ic >= height) {
+            return null;
+        }
+        int n = width * height;
+        int[] dist = new int[n];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        int[][] bucket = new int[BUCKETS][ic + 1];
+        int[]   count  = new int[BUCKETS];
+        int queued = 0;
+        for (int i = 0; i <= ic; i++) {
+            if ((solid[i * stride + (jc >>> 6)] & (1L << jc)) == 0) {
+                dist[i * width + jc] = 0;
+                bucket[0][count[0]++] = i * width + jc;
+                queued++;
+            }
+        }
+        for (int d = 0; queued > 0; d++) {
+            int b = d % BUCKETS;
+            while (count[b] > 0) {
+                int k = bucket[b][--count[b]];
+                queued--;
+                if (dist[k] != d) {
+                    continue;  // found a shorter way since
+                }
+                int i = k / width;
+                int j = k - i * width;
+                for (int di = -1; di <= 1; di++) {
+                    for (int dj = -1; dj <= 1; dj++) {
+                        int i2 = i + di;
+                        int j2 = j + dj;
+                        if ((di | dj) == 0 || i2 < 0 || i2 >= height || j2 < 0 || j2 >= width
+                                || (solid[i2 * stride + (j2 >>> 6)] & (1L << j2)) != 0) {
+                            continue;
+                        }
+                        if ((j < jc) != (j2 < jc) && (i <= ic || i2 <= ic)) {
+                            continue;  // the start line
+                        }
+                        int d2 = d + ((di != 0 && dj != 0) ? DIAGONAL : STRAIGHT);
+                        int k2 = i2 * width + j2;
+                        if (d2 < dist[k2]) {
+                            dist[k2] = d2;
+                            int b2 = d2 % BUCKETS;
+                            if (count[b2] == bucket[b2].length) {
+                                bucket[b2] = Arrays.copyOf(bucket[b2], count[b2] * 2);
+                            }
+                            bucket[b2][count[b2]++] = k2;
+                            queued++;
+                        }
+                    }
+                }
+            }
+        }
+        // The lap is however far it is to the other side of the line.
+        long lap = 0;
+        for (int i = 0; i <= ic; i++) {
+            int d = dist[i * width + jc - 1];
+            if (d != Integer.MAX_VALUE) {
+                lap = Math.max(lap, d);
+            }
+        }
+        if (lap == 0) {
+            return null;
+        }
+        char[] progress = new char[n];
+        for (int k = 0; k < n; k++) {
+            progress[k] = (dist[k] == Integer.MAX_VALUE) ? UNKNOWN
+                    : (char)Math.min(UNITS - 1, dist[k] * (long)UNITS / lap);
+        }
+        return progress;
+    }
+}
@@ -0,0 +1,511 @@
+package cosmic.lang;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+// The race itself:  world, bots, particles and the lap/winner bookkeeping.
+// Nothing in here knows about Swing, so it can be stepped as fast as the CPU
+// allows.  MainGame drives one of these from its timer, headless callers use run().
+class RaceEngine {
+    // Told about deaths and the win, e.g. so MainGame can show a message.
+    interface Listener {
+        // index is where the bot was in getBots() before it was removed.
+        void botDied(int index, Bot b);
+        // Called once, when the first bot completes lapsNeeded laps.
+        void raceWon(Bot b);
+    }
+
+    public static final int    DEFAULT_MAX_FRAMES = 60 * 60 * 10;  // 10 minutes of simulated time
+    public static final double DEFAULT_NEAR_WALL  = 4.0;           // meters, see setNearWall
+
+    // Options that change how the race plays out, so replays need them too
+    // (see getOptions).  Both are off by default:  every bot starts on the
+    // same spot, and the stock races were tuned without them.
+    public static final int BOT_COLLISIONS  = 1;  // bots bump into each other
+    public static final int OPPONENT_SENSOR = 2;  // fill in Bot.getOpponentDistance/Angle
+
+    private final World               world;
+    private final ArrayList<Bot>      roster;    // every bot that started, in starting order
+    private final ArrayList<Bot>      bots;      // bots still racing
+    private final ParticleSystem      particles;
+    private final Random              rand;      // only used for particles
+    private final long                seed;
+    private final int                 lapsNeeded;
+    private Listener                  listener;
+    private RaceRecorder              recorder;
+    private Profiler                  profiler;
+    private ActionBudget              budget;    // how getAction gets called
+    private int[]                     forcedActions;  // by bot id, see setForcedActions
+    private boolean                   particlesEnabled;
+    private int                       options;
+    private SpatialHash               hash;      // only while BOT_COLLISIONS or OPPONENT_SENSOR is on
+    private int[]                     near;      // scratch for SpatialHash.neighbors
+    private boolean                   raceIsOn;
+    private int                       frame;     // simulation ticks (of Bot.DT) so far
+    private int                       stepFrames = 1;  // ticks per step, see setStepFrames
+    private double                    nearWall   = DEFAULT_NEAR_WALL;
+    private Bot                       winner;
+    private int                       winnerFrame;
+    private Bot[]                     positions = new Bot[0];  // see getPositions
+
+    public RaceEngine(World world, long seed, int lapsNeeded) {
+        this.world      = world;
+        this.seed       = seed;
+        this.rand       = new Random(seed);
+        this.lapsNeeded = lapsNeeded;
+        roster           = new ArrayList<Bot>();
+        bots             = new ArrayList<Bot>();
+        particles        = new ParticleSystem();
+        particlesEnabled = true;
+        profiler         = Profiler.NONE;
+        budget           = ActionBudget.NONE;
+        raceIsOn         = true;
+        winnerFrame      = -1;
+    }
+
+    public void addBot(Bot b) {
+        b.setId(roster.size());
+        roster.add(b);
+        bots.add(b);
+        if (hash != null) {
+            hash.update(b);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Every step from now on gets written to recorder.
+    public void setRecorder(RaceRecorder recorder) {
+        if (recorder != null && stepFrames != 1) {
+            throw new IllegalStateException("Races are only recorded a tick per step");
+        }
+        this.recorder = recorder;
+    }
+
+    // Make each step() frames ticks long instead of one:  bots scan and call
+    // getAction once per step and keep doing that for the whole step (see
+    // Bot.update), which is most of what a tick costs, except near walls (see
+    // setNearWall).  Crashes and laps are still worked out a tick at a time,
+    // and getFrame, finish frames and maxFrames still count ticks.  For
+    // headless runs;  recordings need 1.
+    public void setStepFrames(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("Step must be at least one tick: " + frames);
+        }
+        if (recorder != null && frames != 1) {
+            throw new IllegalStateException("Races are only recorded a tick per step");
+        }
+        stepFrames = frames;
+    }
+    public int getStepFrames() {
+        return stepFrames;
+    }
+    // With several ticks a step, bots within meters of a wall still decide
+    // every tick, since that's where reacting a few ticks late turns into a
+    // different crash, or a different turn.  Measured with 'coarse' (4 ticks
+    // a step, 256 races of MyBot with random Params on the stock tracks):
+    //     nearWall 0:  3.6x faster,  Doug's Bot same outcome in 148 races
+    //     nearWall 3:  1.2x faster,  194
+    //     nearWall 4:  1.1x faster,  255, same winners, same finish frames
+    // The stock tracks are narrow enough that 4 m is most of the track, so
+    // faithful steps there save little;  the savings are on open tracks, or
+    // with 0 when close is good enough.  Bots doing forced actions (replays,
+    // RaceEnv) hold them for the whole step either way.
+    public void setNearWall(double meters) {
+        nearWall = meters;
+    }
+    public double getNearWall() {
+        return nearWall;
+    }
+
+    // If set, bot b does actions[b.getId()] instead of calling its getAction
+    // (see RaceReplay).  The array is read on every step, so just update it.
+    public void setForcedActions(int[] actions) {
+        forcedActions = actions;
+    }
+
+    // Time each part of step() into profiler (see Profiler's ENGINE sections).
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        setActionBudget(budget.getBudgetNanos(), budget.usesWorker());
+    }
+
+    // Bots whose getAction takes more than nanos (0 for no limit) DRIFT that
+    // tick instead, see ActionBudget.  With useWorker getAction runs on
+    // another thread, so a stuck bot can't hold up the race either.  This
+    // makes results depend on how fast the machine is, so headless runs leave
+    // it off unless asked; replays are fine since they record what was done.
+    public void setActionBudget(long nanos, boolean useWorker) {
+        budget.shutdown();
+        budget = (nanos == 0 && !useWorker && profiler == Profiler.NONE)
+                ? ActionBudget.NONE : new ActionBudget(nanos, useWorker, profiler);
+    }
+    public long getActionBudget() {
+        return budget.getBudgetNanos();
+    }
+
+    // Particles are purely cosmetic; headless runs can turn them off.
+    public void setParticlesEnabled(boolean enabled) {
+        particlesEnabled = enabled;
+    }
+
+    public void setBotCollisions(boolean enabled) {
+        setOptions(enabled ? (options | BOT_COLLISIONS) : (options & ~BOT_COLLISIONS));
+    }
+    public void setOpponentSensor(boolean enabled) {
+        setOptions(enabled ? (options | OPPONENT_SENSOR) : (options & ~OPPONENT_SENSOR));
+    }
+    public int getOptions() {
+        return options;
+    }
+    void setOptions(int options) {
+        this.options = options;
+        if (options == 0) {
+            hash = null;
+        } else if (hash == null) {
+            hash = new SpatialHash(world);
+            near = new int[64];
+            rebuildHash();
+        }
+    }
+    private void rebuildHash() {
+        if (hash != null) {
+            hash.clear();
+            for (Bot b : bots) {
+                hash.update(b);
+            }
+        }
+    }
+
+    // Advance the race by one step (getStepFrames ticks of Bot.DT seconds).
+    // Returns false once the race is over.
+    public boolean step() {
+        if (!raceIsOn) {
+            return false;
+        }
+        frame += stepFrames;
+        long start = profiler.start();
+        long collisionNanos = 0;
+        if ((options & OPPONENT_SENSOR) != 0) {
+            // Everyone senses where the others were at the start of the tick.
+            for (Bot b : bots) {
+                b.senseOpponent(hash.nearest(b, Bot.SCAN_MAX_DIST));
+            }
+            collisionNanos = profiler.start() - start;
+        }
+        // Update all the bots, remove dead ones
+        // Also see who's in the lead
+        long t = profiler.start();
+        Bot leadBot = null;
+        int maxLaps = -1;
+        int i = 0;
+        while (i < bots.size()) {
+            Bot b = bots.get(i);
+            b.update(world, (forcedActions != null) ? forcedActions[b.getId()] : -1, budget, stepFrames, nearWall);
+            // With several ticks a step, whoever got there on the earliest tick leads.
+            if (b.getLaps() > maxLaps
+                    || (b.getLaps() == maxLaps && maxLaps >= lapsNeeded && b.getLapFrame() < leadBot.getLapFrame())) {
+                leadBot = b;
+                maxLaps = b.getLaps();
+            }
+            if (b.isDead()) {
+                if (hash != null) {
+                    hash.remove(b);
+                }
+                if (particlesEnabled) {
+                    b.generateParticles(particles, rand);
+                }
+                bots.remove(i);
+                if (listener != null) {
+                    listener.botDied(i, b);
+                }
+            } else {
+                if (hash != null) {
+                    hash.update(b);
+                }
+                i++;
+            }
+        }
+        profiler.end(Profiler.BOTS, t);
+        if ((options & BOT_COLLISIONS) != 0) {
+            t = profiler.start();
+            collideBots();
+            collisionNanos += profiler.start() - t;
+        }
+        if (options != 0) {
+            profiler.record(Profiler.COLLISIONS, collisionNanos);
+        }
+        t = profiler.start();
+        particles.update();
+        profiler.end(Profiler.PARTICLES, t);
+        if (maxLaps >= lapsNeeded) {
+            raceIsOn    = false;
+            winner      = leadBot;
+            winnerFrame = frame - stepFrames + leadBot.getLapFrame();
+            if (listener != null) {
+                listener.raceWon(leadBot);
+            }
+        }
+        if (recorder != null) {
+            t = profiler.start();
+            try {
+                recorder.frame(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            profiler.end(Profiler.RECORD, t);
+        }
+        profiler.end(Profiler.ENGINE, start);
+        return raceIsOn;
+    }
+
+    // Push apart any two bots closer than 2 * Bot.RADIUS, half each.  Bots
+    // exactly on top of each other are left alone, which is how everyone
+    // starts;  they drift apart as soon as they pick different lines.
+    private void collideBots() {
+        double minDist = 2 * Bot.RADIUS;
+        for (Bot a : bots) {
+            int n = hash.neighbors(a, near);
+            while (n == near.length) {
+                near = new int[near.length * 2];
+                n = hash.neighbors(a, near);
+            }
+            for (int k = 0; k < n; k++) {
+                Bot b = hash.get(near[k]);
+                if (b.getId() <= a.getId()) {
+                    continue;  // each pair once
+                }
+                double dx = b.getX() - a.getX();
+                double dy = b.getY() - a.getY();
+                double d2 = dx * dx + dy * dy;
+                if (d2 >= minDist * minDist || d2 == 0) {
+                    continue;
+                }
+                double d    = Math.sqrt(d2);
+                double nx   = dx / d;
+                double ny   = dy / d;
+                double push = (minDist - d) / 2;
+                a.bump(world, -nx * push, -ny * push, nx, ny);
+                b.bump(world, nx * push, ny * push, -nx, -ny);
+            }
+        }
+        for (Bot b : bots) {
+            hash.update(b);
+        }
+    }
+
+    // Run until somebody wins, everybody dies or maxFrames ticks have passed.
+    public RaceResult run(int maxFrames) {
+        while (raceIsOn && !bots.isEmpty() && frame < maxFrames) {
+            step();
+        }
+        return getResult();
+    }
+
+    public RaceResult getResult() {
+        return new RaceResult(roster, roster.indexOf(winner), winnerFrame, frame);
+    }
+
+    // Everything needed to pick the race up again from this point, except for
+    // particles (cosmetic) and the particle Random.
+    public static int stateBytes(int bots) {
+        return 13 + bots * Bot.STATE_BYTES;
+    }
+    public void saveState(ByteBuffer buf) {
+        buf.putInt(frame);
+        buf.put((byte)(raceIsOn ? 1 : 0));
+        buf.putInt(winner != null ? winner.getId() : -1);
+        buf.putInt(winnerFrame);
+        for (Bot b : roster) {
+            b.saveState(buf);
+        }
+    }
+    public void loadState(ByteBuffer buf) {
+        frame       = buf.getInt();
+        raceIsOn    = buf.get() != 0;
+        int w       = buf.getInt();
+        winner      = (w >= 0) ? roster.get(w) : null;
+        winnerFrame = buf.getInt();
+        // Indexed loops so that resetting a race (see RaceEnv) allocates nothing.
+        bots.clear();
+        for (int i = 0; i < roster.size(); i++) {
+            Bot b = roster.get(i);
+            b.loadState(buf);
+            if (!b.isDead()) {
+                bots.add(b);
+            }
+        }
+        for (int i = 0; i < roster.size(); i++) {
+            roster.get(i).locate(world);
+        }
+        particles.clear();
+        rebuildHash();
+    }
+
+    public World getWorld() {
+        return world;
+    }
+    public ArrayList<Bot> getBots() {
+        return bots;
+    }
+    public ArrayList<Bot> getRoster() {
+        return roster;
+    }
+    // Everyone who started, in race order:  most laps plus progress around
+    // the current one first, dead bots after everyone still racing.  The
+    // winner (if any) is first whatever the others have done since.  This is
+    // for the HUD every frame, so it's the same array every time, sorted
+    // again in place:  it's only good until the next call.
+    public Bot[] getPositions() {
+        if (positions.length != roster.size()) {
+            positions = new Bot[roster.size()];
+        }
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = roster.get(i);
+        }
+        // Stable (and allocation-free at these sizes), so equal bots stay in
+        // starting order.
+        Arrays.sort(positions, BY_POSITION);
+        if (winner != null) {
+            int w = 0;
+            while (positions[w] != winner) {
+                w++;
+            }
+            System.arraycopy(positions, 0, positions, 1, w);
+            positions[0] = winner;
+        }
+        return positions;
+    }
+    private static final Comparator<Bot> BY_POSITION = (a, b) -> {
+        if (a.isDead() != b.isDead()) {
+            return a.isDead() ? 1 : -1;
+        }
+        return Double.compare(b.getLaps() + b.getProgress(), a.getLaps() + a.getProgress());
+    };
+    public ParticleSystem getParticles() {
+        return particles;
+    }
+    public boolean isRaceOn() {
+        return raceIsOn;
+    }
+    public int getFrame() {
+        return frame;
+    }
+    public long getSeed() {
+        return seed;
+    }
+    public int getLapsNeeded() {
+        return lapsNeeded;
+    }
+    public Bot getWinner() {
+        return winner;
+    }
+}
+
+// Snapshot of how a race went, per bot in starting order.
+class RaceResult {
+    private final String[] names;
+    private final int[]    laps;
+    private final int[]    health;
+    private final int[]    crashes;
+    private final int[]    overruns;     // getAction calls over the budget
+    private final double[] actionMean;   // getAction ns, mean and max
+    private final long[]   actionMax;
+    private final int      winner;       // index into the roster, -1 if nobody finished
+    private final int      finishFrame;  // tick the winner finished on, -1 if nobody finished
+    private final int      frames;       // total ticks simulated
+
+    public RaceResult(ArrayList<Bot> roster, int winner, int finishFrame, int frames) {
+        int n = roster.size();
+        names   = new String[n];
+        laps    = new int[n];
+        health  = new int[n];
+        crashes = new int[n];
+        overruns   = new int[n];
+        actionMean = new double[n];
+        actionMax  = new long[n];
+        for (int i = 0; i < n; i++) {
+            Bot b = roster.get(i);
+            names[i]   = b.getName();
+            laps[i]    = b.getLaps();
+            health[i]  = b.getHealth();
+            crashes[i] = b.getCrashes();
+            overruns[i]   = b.getActionOverruns();
+            actionMean[i] = b.getMeanActionNanos();
+            actionMax[i]  = b.getMaxActionNanos();
+        }
+        this.winner      = winner;
+        this.finishFrame = finishFrame;
+        this.frames      = frames;
+    }
+    // For races that weren't run with Bots (see BotBatch), so no getAction stats.
+    RaceResult(String[] names, int[] laps, int[] health, int[] crashes, int winner, int finishFrame, int frames) {
+        this.names       = names;
+        this.laps        = laps;
+        this.health      = health;
+        this.crashes     = crashes;
+        this.overruns    = new int[names.length];
+        this.actionMean  = new double[names.length];
+        this.actionMax   = new long[names.length];
+        this.winner      = winner;
+        this.finishFrame = finishFrame;
+        this.frames      = frames;
+    }
+    public int getBotCount() {
+        return names.length;
+    }
+    public String getName(int bot) {
+        return names[bot];
+    }
+    public int getLaps(int bot) {
+        return laps[bot];
+    }
+    public int getHealth(int bot) {
+        return health[bot];
+    }
+    public int getCrashes(int bot) {
+        return crashes[bot];
+    }
+    public int getOverruns(int bot) {
+        return overruns[bot];
+    }
+    public double getMeanActionNanos(int bot) {
+        return actionMean[bot];
+    }
+    public long getMaxActionNanos(int bot) {
+        return actionMax[bot];
+    }
+    public int getWinner() {
+        return winner;
+    }
+    public String getWinnerName() {
+        return winner >= 0 ? names[winner] : null;
+    }
+    public int getFinishFrame() {
+        return finishFrame;
+    }
+    public int getFrames() {
+        return frames;
+    }
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (winner >= 0) {
+            sb.append(String.format("%s wins at frame %d (%.2f s)%n", names[winner], finishFrame, finishFrame * Bot.DT));
+        } else {
+            sb.append(String.format("No winner after %d frames%n", frames));
+        }
+        for (int i = 0; i < names.length; i++) {
+            sb.append(String.format("  %-20s laps: %d  health: %d  crashes: %d  getAction: %.1f/%.1f us  overruns: %d%n",
+                    names[i], laps[i], health[i], crashes[i], actionMean[i] / 1e3, actionMax[i] / 1e3, overruns[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,246 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+// N copies of a race with one bot each, stepped together, for training a
+// policy outside the JVM (gym style).  Each copy is a RaceEngine with a plain
+// Bot driven by forced actions, so it's the same physics, crash and lap rules
+// as any other race.  The caller picks every bot's action each step:
+//
+//     env.reset(seed);                 // fills getObservations()
+//     while (...) {
+//         ... actions[i] = policy(obs[i * OBS_SIZE ...]) ...
+//         env.step(actions);           // fills observations, rewards and done
+//     }
+//
+// The buffers are allocated once and rewritten by every step, and a step
+// allocates nothing.  Observations, OBS_SIZE per copy:
+//     dist0..dist4  (meters, as getAction gets them)
+//     speed         (m/s)
+//     progress      (0..1 around the lap, see Bot.getProgress)
+//     health
+// The reward is how far around the track the step went, in laps, less
+// CRASH_PENALTY for each crash.  A copy is done when it wins (lapsNeeded
+// laps), dies or runs out of maxFrames.  It's reset there and then, so the
+// observations after a done step are already the first of the next episode.
+//
+// serve() runs it over a pipe, see there.
+class RaceEnv {
+    public static final int    OBS_SIZE      = 8;
+    public static final int    ACTIONS       = 11;    // Bot.DRIFT .. Bot.SLIGHT_LEFT
+    public static final double CRASH_PENALTY = 0.1;   // laps
+    public static final double START_JITTER  = 10.0;  // degrees either way, see reset
+    public static final int    MAGIC         = 0x42524556;  // "BREV", see serve
+
+    private final World        world;
+    private final int          envs;
+    private final int          lapsNeeded;
+    private final int          maxFrames;
+    private final RaceEngine[] engines;
+    private final Bot[]        bots;
+    private final int[][]      forced;   // per copy, what its engine's bot does next step
+    private final ByteBuffer[] start;    // per copy, RaceEngine.saveState at the start
+    private final double[]     observations;
+    private final double[]     rewards;
+    private final boolean[]    done;
+    private final double[]     position; // per copy, laps + progress after the last step
+    private final int[]        episodeCrashes;
+    private Random             rand;
+    private long               steps;    // copy-steps so far
+
+    // frames is how many ticks each step lasts (see RaceEngine.setStepFrames).
+    public RaceEnv(World world, int envs, int lapsNeeded, int maxFrames, int frames) {
+        this.world      = world;
+        this.envs       = envs;
+        this.lapsNeeded = lapsNeeded;
+        this.maxFrames  = maxFrames;
+        engines = new RaceEngine[envs];
+        bots    = new Bot[envs];
+        forced  = new int[envs][1];
+        start   = new ByteBuffer[envs];
+        for (int i = 0; i < envs; i++) {
+            engines[i] = new RaceEngine(world, 17, lapsNeeded);
+            engines[i].setParticlesEnabled(false);
+            engines[i].setStepFrames(frames);
+            bots[i] = new Bot(world.getStartX(), world.getStartY(), 0.0, "Agent " + i, Color.BLUE);
+            engines[i].addBot(bots[i]);
+            engines[i].setForcedActions(forced[i]);
+            start[i] = ByteBuffer.allocate(RaceEngine.stateBytes(1));
+            engines[i].saveState(start[i]);
+        }
+        observations   = new double[envs * OBS_SIZE];
+        rewards        = new double[envs];
+        done           = new boolean[envs];
+        position       = new double[envs];
+        episodeCrashes = new int[envs];
+        rand           = new Random(0);
+    }
+
+    public int size() {
+        return envs;
+    }
+    public double[] getObservations() {
+        return observations;
+    }
+    public double[] getRewards() {
+        return rewards;
+    }
+    public boolean[] getDone() {
+        return done;
+    }
+    public long getSteps() {
+        return steps;
+    }
+    public RaceEngine getEngine(int env) {
+        return engines[env];
+    }
+
+    // Start every copy over.  Each starts facing up to START_JITTER degrees
+    // off the usual way, from a Random seeded with seed (and later resets
+    // carry on with it), so runs with the same seed and actions are the same.
+    public void reset(long seed) {
+        rand = new Random(seed);
+        for (int i = 0; i < envs; i++) {
+            reset(i);
+            rewards[i] = 0;
+            done[i]    = false;
+        }
+    }
+    private void reset(int i) {
+        start[i].rewind();
+        engines[i].loadState(start[i]);
+        bots[i].turnTo((rand.nextDouble() * 2 - 1) * START_JITTER);
+        position[i]       = bots[i].getLaps() + bots[i].getProgress();
+        episodeCrashes[i] = 0;
+        observe(i);
+    }
+
+    // One step of every copy, actions[i] for copy i (Bot.DRIFT etc.).
+    public void step(int[] actions) {
+        for (int i = 0; i < envs; i++) {
+            int action = actions[i];
+            if (action < 0 || action >= ACTIONS) {
+                throw new IllegalArgumentException("No such action: " + action);
+            }
+            forced[i][0] = action;
+            RaceEngine engine = engines[i];
+            Bot b = bots[i];
+            engine.step();
+            double now = b.getLaps() + b.getProgress();
+            int crashes = b.getCrashes() - episodeCrashes[i];
+            rewards[i] = now - position[i] - CRASH_PENALTY * crashes;
+            position[i] = now;
+            episodeCrashes[i] = b.getCrashes();
+            done[i] = !engine.isRaceOn() || b.isDead() || engine.getFrame() >= maxFrames;
+            if (done[i]) {
+                reset(i);
+            } else {
+                observe(i);
+            }
+        }
+        steps += envs;
+    }
+
+    private void observe(int i) {
+        Bot b = bots[i];
+        b.scan(world);
+        int k = i * OBS_SIZE;
+        b.getDistances(observations, k);
+        observations[k + 5] = b.getSpeed();
+        observations[k + 6] = b.getProgress();
+        observations[k + 7] = b.getHealth();
+    }
+
+    // Serve this env over a pair of byte streams (stdin and stdout for a
+    // trainer that runs us as a subprocess).  Everything is in native byte
+    // order, so numpy.frombuffer can read it as is.
+    //     we send first   MAGIC, envs, OBS_SIZE, ACTIONS             (ints)
+    //     'R' seed        (byte, long)  reset:  we send observations
+    //     'S' actions     (byte, one byte per copy)
+    //                     step:  we send observations, rewards (doubles) and done (one byte per copy)
+    //     'Q'             quit
+    // Observations are envs * OBS_SIZE doubles.  Anything the bots or the
+    // engine print goes to stderr (System.out is pointed there while serving),
+    // so it can't get mixed up with the replies.
+    public void serve(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        ByteBuffer request = ByteBuffer.allocateDirect(1 + Math.max(8, envs)).order(ByteOrder.nativeOrder());
+        ByteBuffer reply = ByteBuffer.allocateDirect(16 + 8 * (observations.length + envs) + envs)
+                .order(ByteOrder.nativeOrder());
+        int[] actions = new int[envs];
+        reply.putInt(MAGIC).putInt(envs).putInt(OBS_SIZE).putInt(ACTIONS);
+        send(reply, out);
+        while (true) {
+            read(request, 1, in);
+            byte command = request.get(0);
+            if (command == 'Q') {
+                return;
+            } else if (command == 'R') {
+                read(request, 8, in);
+                reset(request.getLong(0));
+                putObservations(reply);
+            } else if (command == 'S') {
+                read(request, envs, in);
+                for (int i = 0; i < envs; i++) {
+                    actions[i] = request.get(i);
+                }
+                step(actions);
+                putObservations(reply);
+                for (double r : rewards) {
+                    reply.putDouble(r);
+                }
+                for (boolean d : done) {
+                    reply.put((byte)(d ? 1 : 0));
+                }
+            } else {
+                throw new IOException("Unknown command " + command);
+            }
+            send(reply, out);
+        }
+    }
+    private void putObservations(ByteBuffer reply) {
+        for (double o : observations) {
+            reply.putDouble(o);
+        }
+    }
+    private static void read(ByteBuffer buf, int n, ReadableByteChannel in) throws IOException {
+        buf.clear().limit(n);
+        while (buf.hasRemaining()) {
+            if (in.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+    private static void send(ByteBuffer buf, WritableByteChannel out) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+
+    // serve() on this process's stdin and stdout.
+    public void serveStdio() throws IOException {
+        PrintStream console = System.out;
+        System.setOut(System.err);
+        try (ReadableByteChannel in = Channels.newChannel(new FileInputStream(FileDescriptor.in));
+             WritableByteChannel out = Channels.newChannel(new FileOutputStream(FileDescriptor.out))) {
+            serve(in, out);
+        } catch (EOFException e) {
+            // the trainer went away:  same as 'Q'
+        } finally {
+            System.setOut(console);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes a race to disk as it happens, so it can be replayed exactly later.
+// The simulation is deterministic, so all we need is where everyone started
+// and what each bot decided to do on every tick:  one byte per bot per tick.
+// Every keyframeInterval ticks the whole race state goes in too, so a replay
+// can jump around without re-simulating from the start.
+//
+// File layout (big-endian):
+//     header    MAGIC, VERSION, track, seed, lapsNeeded, options, keyframeInterval,
+//               bot count, then name and color per bot
+//     records   FRAME    tag, one action byte per bot (-1: bot didn't move)
+//               KEYFRAME tag, RaceEngine.saveState
+//               END      tag, frames, winner id
+// The first record is a keyframe of the starting positions.  Writes go
+// through a direct buffer to a FileChannel, so a tick costs a few byte puts.
+class RaceRecorder implements Closeable {
+    static final int  MAGIC   = 0x42525250;  // "BRRP"
+    static final int  VERSION = 2;
+    static final byte FRAME = 'F', KEYFRAME = 'K', END = 'E';
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 600;  // every 10 seconds
+
+    private final FileChannel channel;
+    private final ByteBuffer  buffer;
+    private final int         keyframeInterval;
+    private final int         bots;
+    private boolean           ended;
+
+    public RaceRecorder(Path path, RaceEngine engine) throws IOException {
+        this(path, engine, DEFAULT_KEYFRAME_INTERVAL);
+    }
+    public RaceRecorder(Path path, RaceEngine engine, int keyframeInterval) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer  = ByteBuffer.allocateDirect(1 << 16);
+        this.keyframeInterval = keyframeInterval;
+        bots = engine.getRoster().size();
+
+        buffer.putInt(MAGIC).putInt(VERSION);
+        putString(engine.getWorld().getName());
+        buffer.putLong(engine.getSeed());
+        buffer.putInt(engine.getLapsNeeded());
+        buffer.putInt(engine.getOptions());
+        buffer.putInt(keyframeInterval);
+        buffer.putInt(bots);
+        for (Bot b : engine.getRoster()) {
+            putString(b.getName());
+            buffer.putInt(b.getColor().getRGB());
+        }
+        keyframe(engine);
+    }
+
+    private void putString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        room(2 + bytes.length);
+        buffer.putShort((short)bytes.length).put(bytes);
+    }
+
+    // Make sure there are n bytes free in the buffer.
+    private void room(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void keyframe(RaceEngine engine) throws IOException {
+        room(1 + RaceEngine.stateBytes(bots));
+        buffer.put(KEYFRAME);
+        engine.saveState(buffer);
+    }
+
+    // Called by RaceEngine after every step.
+    public void frame(RaceEngine engine) throws IOException {
+        room(1 + bots);
+        buffer.put(FRAME);
+        for (Bot b : engine.getRoster()) {
+            // Bots that died earlier keep their last action; the replay ignores it.
+            buffer.put((byte)b.getLastAction());
+        }
+        if (engine.getFrame() % keyframeInterval == 0) {
+            keyframe(engine);
+        }
+        if (!engine.isRaceOn()) {
+            end(engine);
+        }
+    }
+
+    private void end(RaceEngine engine) throws IOException {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        Bot winner = engine.getWinner();
+        room(9);
+        buffer.put(END).putInt(engine.getFrame()).putInt(winner != null ? winner.getId() : -1);
+        flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
+
+// Plays back a file made by RaceRecorder.  The engine is built from scratch
+// with plain Bots named and colored like the originals, then driven with the
+// recorded actions.  seek() restores the nearest keyframe at or before the
+// target and steps forward from there.
+class RaceReplay implements Closeable {
+    private final FileChannel      channel;
+    private final MappedByteBuffer data;
+    private final String           track;
+    private final long             seed;
+    private final int              lapsNeeded;
+    private final int              keyframeInterval;
+    private final int              bots;
+    private final RaceEngine       engine;
+    private final int[]            actions;
+    private final int              frames;        // FRAME records in the file
+    private final int[]            keyframePos;   // file position of the keyframe after frame k * keyframeInterval
+    private final int              endWinner;     // from the END record, -2 if the recording stopped early
+    private int                    position;      // file position of the next FRAME record
+
+    public RaceReplay(Path path) throws IOException {
+        this(path, null);
+    }
+    // world can be passed in if the caller already has the right one loaded.
+    public RaceReplay(Path path, World world) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        data    = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (data.getInt() != RaceRecorder.MAGIC || data.getInt() != RaceRecorder.VERSION) {
+            channel.close();
+            throw new IOException(path + " is not a race recording");
+        }
+        track            = getString();
+        seed             = data.getLong();
+        lapsNeeded       = data.getInt();
+        int options      = data.getInt();
+        keyframeInterval = data.getInt();
+        bots             = data.getInt();
+        engine = new RaceEngine(world != null ? world : Assets.world(track), seed, lapsNeeded);
+        for (int i = 0; i < bots; i++) {
+            String name = getString();
+            Color color = new Color(data.getInt());
+            engine.addBot(new Bot(0, 0, 0, name, color));
+        }
+        engine.setOptions(options);
+        actions = new int[bots];
+        engine.setForcedActions(actions);
+
+        // Index the records:  they're all fixed size, so this is quick.
+        int stateBytes = RaceEngine.stateBytes(bots);
+        int count = 0;
+        int winner = -2;
+        java.util.ArrayList<Integer> keyframes = new java.util.ArrayList<Integer>();
+        int pos = data.position();
+        while (pos < data.limit()) {
+            byte tag = data.get(pos);
+            if (tag == RaceRecorder.FRAME) {
+                pos += 1 + bots;
+                count++;
+            } else if (tag == RaceRecorder.KEYFRAME) {
+                keyframes.add(pos);
+                pos += 1 + stateBytes;
+            } else if (tag == RaceRecorder.END) {
+                winner = data.getInt(pos + 5);
+                break;
+            } else {
+                break;  // truncated or damaged, play what we have
+            }
+        }
+        frames    = count;
+        endWinner = winner;
+        keyframePos = new int[keyframes.size()];
+        for (int k = 0; k < keyframePos.length; k++) {
+            keyframePos[k] = keyframes.get(k);
+        }
+        seek(0);
+    }
+
+    private String getString() {
+        byte[] bytes = new byte[data.getShort()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public RaceEngine getEngine() {
+        return engine;
+    }
+    public int getFrames() {
+        return frames;
+    }
+    public boolean isFinished() {
+        return engine.getFrame() >= frames;
+    }
+    // Did playing back give the same winner as the recording?  (Only
+    // meaningful once finished and if the recording wasn't cut short.)
+    public boolean matchesRecording() {
+        Bot w = engine.getWinner();
+        return endWinner == -2 || endWinner == (w != null ? w.getId() : -1);
+    }
+
+    // Play one tick.  Returns false at the end of the recording.
+    public boolean step() {
+        if (isFinished()) {
+            return false;
+        }
+        // Skip the keyframe, if any, that follows the previous frame.
+        if (data.get(position) == RaceRecorder.KEYFRAME) {
+            position += 1 + RaceEngine.stateBytes(bots);
+        }
+        position++;  // FRAME tag
+        for (int i = 0; i < bots; i++) {
+            actions[i] = data.get(position + i);
+        }
+        position += bots;
+        engine.step();
+        return true;
+    }
+
+    // Jump to just after tick 'frame' (0 is the start).
+    public void seek(int frame) {
+        frame = Math.max(0, Math.min(frame, frames));
+        int k = Math.min(frame / keyframeInterval, keyframePos.length - 1);
+        int pos = keyframePos[k];
+        ByteBuffer state = data.duplicate();
+        state.position(pos + 1);
+        engine.loadState(state);
+        position = state.position();
+        while (engine.getFrame() < frame && step()) {
+            // keep going
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+package cosmic.lang;
+
+import java.util.Arrays;
+
+// A set of scan rays at fixed angles relative to a bot, scanned all at once
+// by Bot.scanRays.  cos/sin of the relative angles are worked out up front,
+// so a scan costs one cos/sin of the bot's heading instead of one per ray.
+//
+// On tracks where sphere tracing pays off (World.isWideOpen) each ray is
+// traced on its own, otherwise marched.  USE_VECTOR marches them in lockstep,
+// a vector's worth at a time, through VectorRays; that needs VectorRays on
+// the classpath (build/classes/java/vector, or the jar) and the
+// jdk.incubator.vector module (java --add-modules jdk.incubator.vector ...).
+// It's off by default:  on JDK 17 the lockstep march came out slower than
+// marching the rays one at a time, see RayFanBenchmark.
+//
+// Rotating by the table can give a direction that differs from scanRay's
+// Math.cos(angle + relative) in the last bit, so now and then a ray lands one
+// sample (SCAN_INCREMENT) off from scanRay, never more (see RayFanTest).
+class RayFan {
+    public static final double[] STANDARD_ANGLES = {-90, -45, 0, 45, 90};  // Bot.update's five rays
+    private static final double[] STANDARD_COS = new double[STANDARD_ANGLES.length];
+    private static final double[] STANDARD_SIN = new double[STANDARD_ANGLES.length];
+    static {
+        for (int k = 0; k < STANDARD_ANGLES.length; k++) {
+            STANDARD_COS[k] = Math.cos(STANDARD_ANGLES[k] * Bot.DEG_TO_RAD);
+            STANDARD_SIN[k] = Math.sin(STANDARD_ANGLES[k] * Bot.DEG_TO_RAD);
+        }
+    }
+
+    // What VectorRays does, so this compiles without it.  dx and dy must be
+    // padded out to a whole number of vectors;  rows and cols (scratch) need
+    // room for one vector's worth.
+    interface Marcher {
+        void march(World world, double x, double y, double[] dx, double[] dy, int n,
+                   double[] out, double[] rows, double[] cols);
+    }
+    private static final Marcher VECTOR = loadVector();
+    public static final boolean VECTOR_AVAILABLE = VECTOR != null;
+    // Only has an effect if VECTOR_AVAILABLE.
+    public static boolean USE_VECTOR = false;
+    private static final int PAD = 8;  // widest double vector (512 bits) we expect
+
+    private final double[] angles;
+    private final int      n;
+    private final double[] cos, sin;    // of each relative angle
+    private final double[] dx, dy;      // step along each ray for the current scan
+    private final double[] rows, cols;  // scratch for VectorRays
+
+    public RayFan(double[] relativeAngles) {
+        angles = relativeAngles.clone();
+        n      = angles.length;
+        int padded = (n + PAD - 1) / PAD * PAD;
+        if (Arrays.equals(angles, STANDARD_ANGLES)) {
+            cos = Arrays.copyOf(STANDARD_COS, padded);
+            sin = Arrays.copyOf(STANDARD_SIN, padded);
+        } else {
+            cos = new double[padded];
+            sin = new double[padded];
+            for (int k = 0; k < n; k++) {
+                cos[k] = Math.cos(angles[k] * Bot.DEG_TO_RAD);
+                sin[k] = Math.sin(angles[k] * Bot.DEG_TO_RAD);
+            }
+        }
+        dx   = new double[padded];
+        dy   = new double[padded];
+        rows = new double[PAD];
+        cols = new double[PAD];
+    }
+
+    public boolean matches(double[] relativeAngles) {
+        return Arrays.equals(angles, relativeAngles);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Distances from (x, y) along every ray for a bot pointing heading
+    // radians, into out[0..size()-1].
+    public void scan(World world, double x, double y, double heading, double[] out) {
+        double c = Math.cos(heading);
+        double s = Math.sin(heading);
+        for (int k = 0; k < n; k++) {
+            dx[k] = (c * cos[k] - s * sin[k]) * Bot.SCAN_INCREMENT;
+            dy[k] = (s * cos[k] + c * sin[k]) * Bot.SCAN_INCREMENT;
+        }
+        if (Bot.SPHERE_TRACE && world.isWideOpen()) {
+            for (int k = 0; k < n; k++) {
+                out[k] = Bot.traceRay(world, x, y, dx[k], dy[k]);
+            }
+        } else if (USE_VECTOR && VECTOR_AVAILABLE) {
+            VECTOR.march(world, x, y, dx, dy, n, out, rows, cols);
+        } else {
+            for (int k = 0; k < n; k++) {
+                out[k] = Bot.marchRay(world, x, y, dx[k], dy[k]);
+            }
+        }
+    }
+
+    private static Marcher loadVector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (Marcher)Class.forName("cosmic.lang.VectorRays").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;  // not built in
+        }
+    }
+}
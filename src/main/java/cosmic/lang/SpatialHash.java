@@ -0,0 +1,177 @@
+package cosmic.lang;
+
+import java.util.Arrays;
+
+// Uniform grid over the world for finding bots near each other without
+// checking every pair.  Cells are CELL_BLOCKS world blocks on a side, which
+// is more than a bot's diameter, so two touching bots are always in the same
+// or neighboring cells.  Each cell is a doubly linked list threaded through
+// arrays indexed by bot id, so moving a bot between cells is O(1) and only
+// happens when it actually crosses a cell boundary.
+class SpatialHash {
+    public static final int    CELL_BLOCKS = 8;
+    public static final double CELL_METERS = CELL_BLOCKS * World.BLOCK_METERS;  // 2 m
+
+    private final int   cols, rows;
+    private final int[] head;     // first bot id in each cell, -1 if empty
+    private int[]       next, prev, cellOf;  // by bot id; cellOf is -1 if not in the grid
+    private Bot[]       byId;
+
+    public SpatialHash(World world) {
+        cols = Math.max(1, (world.getWidth() + CELL_BLOCKS - 1) / CELL_BLOCKS);
+        rows = Math.max(1, (world.getHeight() + CELL_BLOCKS - 1) / CELL_BLOCKS);
+        head = new int[cols * rows];
+        Arrays.fill(head, -1);
+        next   = new int[0];
+        prev   = new int[0];
+        cellOf = new int[0];
+        byId   = new Bot[0];
+    }
+
+    // Bots off the map are kept in the nearest edge cell.
+    private int cellFor(double x, double y) {
+        int c = Math.max(0, Math.min(cols - 1, (int)Math.floor(x / CELL_METERS)));
+        int r = Math.max(0, Math.min(rows - 1, (int)Math.floor(y / CELL_METERS)));
+        return r * cols + c;
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= cellOf.length) {
+            int n = Math.max(id + 1, cellOf.length * 2);
+            next   = Arrays.copyOf(next, n);
+            prev   = Arrays.copyOf(prev, n);
+            byId   = Arrays.copyOf(byId, n);
+            int old = cellOf.length;
+            cellOf = Arrays.copyOf(cellOf, n);
+            Arrays.fill(cellOf, old, n, -1);
+        }
+    }
+
+    // Add b, or move it if it has changed cells since last time.
+    public void update(Bot b) {
+        int id = b.getId();
+        ensureCapacity(id);
+        int cell = cellFor(b.getX(), b.getY());
+        if (cellOf[id] == cell) {
+            return;
+        }
+        if (cellOf[id] >= 0) {
+            unlink(id);
+        }
+        byId[id]   = b;
+        cellOf[id] = cell;
+        prev[id]   = -1;
+        next[id]   = head[cell];
+        if (head[cell] >= 0) {
+            prev[head[cell]] = id;
+        }
+        head[cell] = id;
+    }
+
+    public void remove(Bot b) {
+        int id = b.getId();
+        if (id < cellOf.length && cellOf[id] >= 0) {
+            unlink(id);
+            cellOf[id] = -1;
+            byId[id]   = null;
+        }
+    }
+
+    private void unlink(int id) {
+        if (prev[id] >= 0) {
+            next[prev[id]] = next[id];
+        } else {
+            head[cellOf[id]] = next[id];
+        }
+        if (next[id] >= 0) {
+            prev[next[id]] = prev[id];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(head, -1);
+        Arrays.fill(cellOf, -1);
+        Arrays.fill(byId, null);
+    }
+
+    // Ids of the bots in b's cell and the 8 around it (b included) go into
+    // out; returns how many.  Anything within CELL_METERS of b is in there.
+    public int neighbors(Bot b, int[] out) {
+        int cell = cellOf[b.getId()];
+        int r0 = cell / cols;
+        int c0 = cell % cols;
+        int n = 0;
+        for (int r = Math.max(0, r0 - 1); r <= Math.min(rows - 1, r0 + 1); r++) {
+            for (int c = Math.max(0, c0 - 1); c <= Math.min(cols - 1, c0 + 1); c++) {
+                for (int id = head[r * cols + c]; id >= 0 && n < out.length; id = next[id]) {
+                    out[n++] = id;
+                }
+            }
+        }
+        return n;
+    }
+
+    public Bot get(int id) {
+        return byId[id];
+    }
+
+    // Closest other bot within maxDist meters, or null.  Searches rings of
+    // cells outward and stops as soon as nothing outside the rings searched
+    // so far could be closer than the best found.
+    public Bot nearest(Bot b, double maxDist) {
+        int cell = cellOf[b.getId()];
+        int r0 = cell / cols;
+        int c0 = cell % cols;
+        double bx = b.getX();
+        double by = b.getY();
+        Bot best = null;
+        double bestD2 = maxDist * maxDist;
+        int maxRing = Math.max(Math.max(r0, rows - 1 - r0), Math.max(c0, cols - 1 - c0));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = r0 - ring; r <= r0 + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                // Rows in the middle of the ring only have its two end cells.
+                int step = (r == r0 - ring || r == r0 + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int c = c0 - ring; c <= c0 + ring; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    for (int id = head[r * cols + c]; id >= 0; id = next[id]) {
+                        Bot o = byId[id];
+                        if (o == b) {
+                            continue;
+                        }
+                        double dx = o.getX() - bx;
+                        double dy = o.getY() - by;
+                        double d2 = dx * dx + dy * dy;
+                        if (d2 < bestD2) {
+                            bestD2 = d2;
+                            best = o;
+                        }
+                    }
+                }
+            }
+            // Anything not searched yet is outside this square of cells, so
+            // at least as far away as its nearest edge (edges of the map don't count).
+            double reach = Double.MAX_VALUE;
+            if (c0 - ring > 0) {
+                reach = Math.min(reach, bx - (c0 - ring) * CELL_METERS);
+            }
+            if (c0 + ring < cols - 1) {
+                reach = Math.min(reach, (c0 + ring + 1) * CELL_METERS - bx);
+            }
+            if (r0 - ring > 0) {
+                reach = Math.min(reach, by - (r0 - ring) * CELL_METERS);
+            }
+            if (r0 + ring < rows - 1) {
+                reach = Math.min(reach, (r0 + ring + 1) * CELL_METERS - by);
+            }
+            if (reach * reach >= bestD2) {
+                break;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,228 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Makes a bot at the starting position, e.g. MyBot::new.
+interface BotFactory {
+    Bot create(double x, double y, double angleDegrees);
+}
+
+// Every bot that can be entered in a tournament.  Add yours here.
+class BotRegistry {
+    private static final LinkedHashMap<String, BotFactory> bots = new LinkedHashMap<String, BotFactory>();
+    static {
+        bots.put("Bot", (x, y, a) -> new Bot(x, y, a, "Generic Bot", Color.BLUE));
+        bots.put("MyBot", MyBot::new);
+    }
+    public static ArrayList<String> names() {
+        return new ArrayList<String>(bots.keySet());
+    }
+    // A registered name, or else the name of a Bot class with an (x, y,
+    // angleDegrees) constructor (e.g. from a worker that only knows the name).
+    public static BotFactory get(String name) {
+        BotFactory f = bots.get(name);
+        if (f == null) {
+            f = byClass(name);
+        }
+        if (f == null) {
+            throw new IllegalArgumentException("No such bot: " + name);
+        }
+        return f;
+    }
+    private static BotFactory byClass(String name) {
+        try {
+            Constructor<? extends Bot> c = Class.forName(name).asSubclass(Bot.class)
+                    .getDeclaredConstructor(double.class, double.class, double.class);
+            c.setAccessible(true);
+            return (x, y, a) -> {
+                try {
+                    return c.newInstance(x, y, a);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Can't make a " + name, e);
+                }
+            };
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+    }
+}
+
+// One race, by name only, so it can be sent to another process (see
+// Coordinator):  the track (as for Assets.world), the bots (as for
+// BotRegistry.get), the seed, and how long it goes.
+class RaceSpec {
+    final String   track;
+    final String[] bots;
+    final long     seed;
+    final int      lapsNeeded;
+    final int      maxFrames;
+
+    public RaceSpec(String track, String[] bots, long seed, int lapsNeeded, int maxFrames) {
+        this.track      = track;
+        this.bots       = bots;
+        this.seed       = seed;
+        this.lapsNeeded = lapsNeeded;
+        this.maxFrames  = maxFrames;
+    }
+
+    public RaceResult run() {
+        World world = Assets.world(track);
+        RaceEngine engine = new RaceEngine(world, seed, lapsNeeded);
+        engine.setParticlesEnabled(false);
+        for (String name : bots) {
+            engine.addBot(BotRegistry.get(name).create(world.getStartX(), world.getStartY(), 0.0));
+        }
+        return engine.run(maxFrames);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(track);
+        out.writeLong(seed);
+        out.writeInt(lapsNeeded);
+        out.writeInt(maxFrames);
+        out.writeByte(bots.length);
+        for (String b : bots) {
+            out.writeUTF(b);
+        }
+    }
+    static RaceSpec read(DataInputStream in) throws IOException {
+        String track   = in.readUTF();
+        long seed      = in.readLong();
+        int lapsNeeded = in.readInt();
+        int maxFrames  = in.readInt();
+        String[] bots  = new String[in.readUnsignedByte()];
+        for (int i = 0; i < bots.length; i++) {
+            bots[i] = in.readUTF();
+        }
+        return new RaceSpec(track, bots, seed, lapsNeeded, maxFrames);
+    }
+}
+
+// Runs every registered bot on every track with several seeds, spread over a
+// ForkJoinPool.  Tracks come from Assets, so they're loaded once and shared
+// (World never changes after it's built);  everything else is per race.
+// Results are stored by race index and added up in that order, so the
+// standings don't depend on the thread count.
+class Tournament {
+    public static final String[] TRACKS = { "/World0.png", "/World1.png", "/World2.png", "/World3.png" };
+
+    private final String[]          tracks;
+    private final ArrayList<String> entrants;
+    private final int               seeds;
+    private final int               lapsNeeded;
+
+    public Tournament(String[] tracks, ArrayList<String> entrants, int seeds, int lapsNeeded) {
+        Assets.worlds(tracks);  // load them all now, in parallel
+        this.tracks     = tracks;
+        this.entrants   = entrants;
+        this.seeds      = seeds;
+        this.lapsNeeded = lapsNeeded;
+    }
+
+    public int getRaceCount() {
+        return tracks.length * seeds;
+    }
+
+    // Race number 'race' is track race / seeds with seed 17 + race % seeds
+    // (17 being what MainGame uses).
+    public RaceSpec getSpec(int race) {
+        return new RaceSpec(tracks[race / seeds], entrants.toArray(new String[0]), 17 + race % seeds,
+                lapsNeeded, RaceEngine.DEFAULT_MAX_FRAMES);
+    }
+    public RaceResult runRace(int race) {
+        return getSpec(race).run();
+    }
+
+    public RaceResult[] run(int threads) {
+        RaceResult[] results = new RaceResult[getRaceCount()];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> IntStream.range(0, results.length).parallel()
+                    .forEach(race -> results[race] = runRace(race))).join();
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+
+    // Races with no result (null, e.g. one Coordinator gave up on) are left out.
+    public Standings standings(RaceResult[] results) {
+        Standings s = new Standings(entrants);
+        for (RaceResult r : results) {
+            if (r != null) {
+                s.add(r);
+            }
+        }
+        return s;
+    }
+}
+
+// Totals per entrant over a set of races, in entrant order.
+class Standings {
+    private final ArrayList<String> names;
+    private final int[]  wins, laps, crashes, deaths;
+    private final long[] winFrames;  // sum of finish frames over wins
+    private int          races;
+
+    public Standings(ArrayList<String> names) {
+        this.names = names;
+        int n = names.size();
+        wins      = new int[n];
+        laps      = new int[n];
+        crashes   = new int[n];
+        deaths    = new int[n];
+        winFrames = new long[n];
+    }
+
+    public void add(RaceResult r) {
+        races++;
+        for (int i = 0; i < names.size(); i++) {
+            laps[i]    += r.getLaps(i);
+            crashes[i] += r.getCrashes(i);
+            if (r.getHealth(i) <= 0) {
+                deaths[i]++;
+            }
+        }
+        if (r.getWinner() >= 0) {
+            wins[r.getWinner()]++;
+            winFrames[r.getWinner()] += r.getFinishFrame();
+        }
+    }
+
+    public int getWins(int entrant) {
+        return wins[entrant];
+    }
+    public int getLaps(int entrant) {
+        return laps[entrant];
+    }
+
+    // Most wins first, then most laps, then fewest crashes.
+    @Override
+    public String toString() {
+        Integer[] order = new Integer[names.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> wins[a] != wins[b] ? wins[b] - wins[a]
+                : laps[a] != laps[b] ? laps[b] - laps[a]
+                : crashes[a] - crashes[b]);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d races%n", races));
+        sb.append(String.format("  %-12s %6s %6s %8s %7s %12s%n", "bot", "wins", "laps", "crashes", "deaths", "avg win (s)"));
+        for (int i : order) {
+            double avgWin = wins[i] > 0 ? winFrames[i] * Bot.DT / wins[i] : Double.NaN;
+            sb.append(String.format("  %-12s %6d %6d %8d %7d %12.2f%n",
+                    names.get(i), wins[i], laps[i], crashes[i], deaths[i], avgWin));
+        }
+        return sb.toString();
+    }
+}
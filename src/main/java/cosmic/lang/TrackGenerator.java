@@ -0,0 +1,155 @@
+package cosmic.lang;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+// Makes up tracks.  The middle of the track is a closed loop around the lap
+// center:  its distance from the center is a periodic Catmull-Rom spline
+// through Params.points control radii, each a random amount (up to
+// curvature) off a circle.  Being a function of the angle, the loop is
+// star-shaped around the center, so the start line (straight up from the
+// center, see ProgressField) crosses it exactly once.  The three control
+// points around the top are kept on the circle, so the top is round and the
+// start, just right of the line, faces right (the way bots start).
+//
+// Everything is built in memory, straight into World's bitset:  solid
+// everywhere, then the track cleared out as discs along the middle.  A
+// track the size of the stock ones takes a few milliseconds, most of it
+// World's clearance and progress fields.  toImage draws any World in
+// TrackLoader's colors, so a generated track can be saved and drawn on.
+//
+// Generated worlds aren't files, so races on them can't be recorded (a
+// replay loads its track by name).
+class TrackGenerator {
+    public static final double MAX_CURVATURE = 0.6;
+    public static final double MARGIN        = 2.0;  // meters of wall outside the track
+    public static final double START_OFFSET  = 2.0;  // meters right of the line the bots start
+
+    static class Params {
+        double length    = 150;  // meters around the middle, roughly (the circle it's bent from)
+        double width     = 4;    // meters, wall to wall
+        double curvature = 0.3;  // 0 for a ring, up to MAX_CURVATURE for tight wiggles
+        int    points    = 10;   // control points around the loop:  more means more turns
+
+        @Override
+        public String toString() {
+            return String.format("length %.0f, width %.1f, curvature %.2f, points %d", length, width, curvature, points);
+        }
+    }
+
+    static World generate(long seed, Params p) {
+        Random rand = new Random(seed);
+        int n = Math.max(4, p.points);
+        double halfWidth = p.width / 2;
+        double radius = Math.max(p.length / (2 * Math.PI), halfWidth + START_OFFSET + 1);
+        double curvature = Math.max(0, Math.min(MAX_CURVATURE, p.curvature));
+        double minRadius = halfWidth + 1;  // keep the inside wall off the center
+        double[] control = new double[n];
+        for (int k = 0; k < n; k++) {
+            control[k] = Math.max(minRadius, radius * (1 + curvature * (2 * rand.nextDouble() - 1)));
+        }
+        control[n - 1] = control[0] = control[1] = radius;
+
+        // The middle of the track, relative to the center, every half block or so.
+        double maxRadius = 0;
+        for (double r : control) {
+            maxRadius = Math.max(maxRadius, r);
+        }
+        int samples = (int)Math.ceil(2 * Math.PI * maxRadius * 1.5 / (World.BLOCK_METERS / 2));
+        double[] xs = new double[samples];
+        double[] ys = new double[samples];
+        double minX = 0, maxX = 0, minY = 0, maxY = 0;
+        for (int s = 0; s < samples; s++) {
+            double t = (double)s * n / samples;  // in control points
+            int k = (int)t;
+            double r = Math.max(minRadius, catmullRom(control[(k + n - 1) % n], control[k], control[(k + 1) % n],
+                    control[(k + 2) % n], t - k));
+            double a = -Math.PI / 2 + 2 * Math.PI * t / n;
+            xs[s] = r * Math.cos(a);
+            ys[s] = r * Math.sin(a);
+            minX = Math.min(minX, xs[s]);
+            maxX = Math.max(maxX, xs[s]);
+            minY = Math.min(minY, ys[s]);
+            maxY = Math.max(maxY, ys[s]);
+        }
+
+        // Lay it out with the center and the start on block corners, which is
+        // where TrackLoader puts them too.
+        double b = World.BLOCK_METERS;
+        double edge = halfWidth + MARGIN;
+        double centerX = b * Math.ceil((edge - minX) / b);
+        double centerY = b * Math.ceil((edge - minY) / b);
+        int width  = (int)Math.ceil((centerX + maxX + edge) / b);
+        int height = (int)Math.ceil((centerY + maxY + edge) / b);
+        double startX = centerX + b * Math.round(START_OFFSET / b);
+        double startY = centerY - b * Math.round(Math.sqrt(radius * radius - START_OFFSET * START_OFFSET) / b);
+
+        int stride = (width + 63) >>> 6;
+        long[] solid = new long[height * stride];
+        Arrays.fill(solid, -1L);
+        for (int s = 0; s < samples; s++) {
+            clearDisc(solid, stride, width, height, centerX + xs[s], centerY + ys[s], halfWidth);
+        }
+        return new World(String.format("generated-%d", seed), width, height, solid, null, null,
+                startX, startY, centerX, centerY);
+    }
+
+    private static double catmullRom(double p0, double p1, double p2, double p3, double t) {
+        return 0.5 * (2 * p1 + (p2 - p0) * t + (2 * p0 - 5 * p1 + 4 * p2 - p3) * t * t
+                + (3 * p1 - p0 - 3 * p2 + p3) * t * t * t);
+    }
+
+    // Clear every block whose center is within r of (x, y), a row at a time.
+    private static void clearDisc(long[] solid, int stride, int width, int height, double x, double y, double r) {
+        double b = World.BLOCK_METERS;
+        int i0 = Math.max(0, (int)Math.ceil((y - r) / b - 0.5));
+        int i1 = Math.min(height - 1, (int)Math.floor((y + r) / b - 0.5));
+        for (int i = i0; i <= i1; i++) {
+            double dy = (i + 0.5) * b - y;
+            double span = Math.sqrt(r * r - dy * dy);
+            int j0 = Math.max(0, (int)Math.ceil((x - span) / b - 0.5));
+            int j1 = Math.min(width - 1, (int)Math.floor((x + span) / b - 0.5));
+            for (int j = j0; j <= j1; ) {
+                int word = j >>> 6;
+                int last = Math.min(j1, (word << 6) + 63);
+                long mask = (-1L << j) & (-1L >>> (63 - (last & 63)));
+                solid[i * stride + word] &= ~mask;
+                j = last + 1;
+            }
+        }
+    }
+
+    // A world in TrackLoader's colors:  grey solid, white track, the start
+    // and center marked.  One pixel per block.
+    static BufferedImage toImage(World world) {
+        int width  = world.getWidth();
+        int height = world.getHeight();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                row[j] = world.isSolid(i, j) ? 0x404040 : 0xFFFFFF;
+            }
+            image.setRGB(0, i, width, 1, row, 0, width);
+        }
+        mark(image, world.getStartX(), world.getStartY(), 0x0080FF);
+        mark(image, world.getCenterX(), world.getCenterY(), 0xC800C8);
+        return image;
+    }
+    private static void mark(BufferedImage image, double x, double y, int rgb) {
+        int j = (int)Math.round(x / World.BLOCK_METERS);
+        int i = (int)Math.round(y / World.BLOCK_METERS);
+        if (i >= 0 && i < image.getHeight() && j >= 0 && j < image.getWidth()) {
+            image.setRGB(j, i, rgb);
+        }
+    }
+    static void writePng(World world, Path path) throws IOException {
+        if (!ImageIO.write(toImage(world), "png", path.toFile())) {
+            throw new IOException("No PNG writer");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cosmic.lang;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+// The background and track never change during a race, so draw them once into
+// an image and just copy that each frame instead of calling World.draw (one
+// fillRect per run of blocks) every time.  The image is rebuilt when the world
+// or the size changes, or when the video memory behind it gets lost.
+class TrackLayer {
+    private final Color background;
+    private World       world;
+    private Image       image;
+    private int         width, height;
+
+    public TrackLayer(Color background) {
+        this.background = background;
+    }
+
+    public void draw(Graphics g, Component c, World world, int width, int height) {
+        GraphicsConfiguration gc = c.getGraphicsConfiguration();
+        if (world != this.world || width != this.width || height != this.height || image == null) {
+            this.world  = world;
+            this.width  = width;
+            this.height = height;
+            image = create(gc);
+            render();
+        }
+        if (image instanceof VolatileImage) {
+            VolatileImage v = (VolatileImage)image;
+            // The usual VolatileImage dance:  contents can be lost at any time.
+            do {
+                int status = v.validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    image = v = (VolatileImage)create(gc);
+                    render();
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    render();
+                }
+                g.drawImage(v, 0, 0, null);
+            } while (v.contentsLost());
+        } else {
+            g.drawImage(image, 0, 0, null);
+        }
+    }
+
+    // Video memory when we have a screen, a plain image otherwise.
+    private Image create(GraphicsConfiguration gc) {
+        if (gc != null) {
+            return gc.createCompatibleVolatileImage(width, height);
+        } else {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    private void render() {
+        Graphics g = image.getGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, width, height);
+        world.draw(g);
+        g.dispose();
+    }
+}
@@ -0,0 +1,251 @@
+package cosmic.lang;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import javax.imageio.ImageIO;
+
+// Turns a track image into World's data.  The raster is read a row at a time
+// straight into the solid bitset, so the only full-size copy is the decoded
+// image itself (the old loader made an int[][] of pixels on top of that).
+//
+// Parsing a big track and building its clearance and progress fields takes a
+// while, so the result is cached in a binary file:  next to the image if it's a
+// plain file (World2.png -> World2.png.grid), in java.io.tmpdir otherwise (e.g.
+// inside a jar).  The cache remembers the image's size and timestamp and is
+// ignored if either changes.  Loading it is a memory map and a few bulk copies.
+//
+// Cache layout (big-endian):
+//     MAGIC, VERSION, image length, image timestamp,
+//     width, height, startX, startY, centerX, centerY, has progress (int, 0 or 1),
+//     solid (height * stride longs), clearance (width * height bytes),
+//     progress (width * height chars, if it has one)
+class TrackLoader {
+    static final int MAGIC   = 0x42524744;  // "BRGD"
+    static final int VERSION = 2;  // 2:  progress field
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 * 8 + 4;
+
+    // Set to false to always parse the image (and not write a cache).
+    public static boolean USE_CACHE = true;
+
+    // Everything World needs, see World(String, int, int, ...).
+    static class Track {
+        String name;
+        int    width, height;
+        long[] solid;
+        byte[] clearance;
+        char[] progress;   // null if the track has no way around, see ProgressField
+        double startX, startY, centerX, centerY;
+    }
+
+    static Track load(String imageFilename) {
+        URL url = Main.class.getResource(imageFilename);
+        if (url == null) {
+            throw new IllegalArgumentException("No such track: " + imageFilename);
+        }
+        try {
+            URLConnection connection = url.openConnection();
+            long length   = connection.getContentLengthLong();
+            long modified = connection.getLastModified();
+            Path cache = USE_CACHE ? cachePath(url, imageFilename) : null;
+            Track t = (cache != null) ? readCache(cache, length, modified) : null;
+            if (t == null) {
+                BufferedImage image;
+                try (InputStream in = connection.getInputStream()) {
+                    image = ImageIO.read(in);
+                }
+                if (image == null) {
+                    throw new IllegalArgumentException(imageFilename + " isn't an image");
+                }
+                t = parse(image);
+                t.clearance = World.buildClearance(t.width, t.height, t.solid);
+                t.progress  = ProgressField.build(t.width, t.height, t.solid, t.centerX, t.centerY);
+                if (cache != null) {
+                    writeCache(cache, t, length, modified);
+                }
+            }
+            t.name = imageFilename;
+            return t;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Couldn't load track " + imageFilename, e);
+        }
+    }
+
+    private static Path cachePath(URL url, String imageFilename) {
+        if (url.getProtocol().equals("file")) {
+            try {
+                Path image = Paths.get(url.toURI());
+                return image.resolveSibling(image.getFileName() + ".grid");
+            } catch (Exception e) {
+                // fall through to the temp directory
+            }
+        }
+        String safe = imageFilename.replaceAll("[^A-Za-z0-9.]", "_");
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+                "botracing-" + Integer.toHexString(url.toString().hashCode()) + "-" + safe + ".grid");
+    }
+
+    // Same rules as the old per-pixel loop:  low (blue) byte 255 is empty,
+    // anything else solid; green 128 marks the start, blue 200 the center.
+    private static Track parse(BufferedImage image) {
+        Track t = new Track();
+        int width  = image.getWidth();
+        int height = image.getHeight();
+        int stride = (width + 63) >>> 6;
+        t.width  = width;
+        t.height = height;
+        t.solid  = new long[height * stride];
+
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        int[] rgb = new int[width];
+        int[] palette = null;
+        byte[] bytes = null;
+        int[] ints = null;
+        if (image.getColorModel() instanceof IndexColorModel
+                && raster.getTransferType() == DataBuffer.TYPE_BYTE && raster.getNumBands() == 1) {
+            IndexColorModel icm = (IndexColorModel)image.getColorModel();
+            palette = new int[icm.getMapSize()];
+            icm.getRGBs(palette);
+            bytes = new byte[width];
+        } else if (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR) {
+            bytes = new byte[width * raster.getNumBands()];
+        } else if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            ints = rgb;
+        }
+
+        for (int i = 0; i < height; i++) {
+            if (palette != null) {
+                raster.getDataElements(0, i, width, 1, bytes);
+                for (int j = 0; j < width; j++) {
+                    rgb[j] = palette[bytes[j] & 255];
+                }
+            } else if (bytes != null) {
+                // Elements come in band order, R, G, B (then A for ABGR).
+                raster.getDataElements(0, i, width, 1, bytes);
+                int bands = raster.getNumBands();
+                for (int j = 0, k = 0; j < width; j++, k += bands) {
+                    rgb[j] = (bytes[k] & 255) << 16 | (bytes[k + 1] & 255) << 8 | (bytes[k + 2] & 255);
+                }
+            } else if (ints != null) {
+                raster.getDataElements(0, i, width, 1, ints);
+            } else {
+                image.getRGB(0, i, width, 1, rgb, 0, width);
+            }
+            parseRow(t, i, rgb, stride);
+        }
+        return t;
+    }
+
+    private static void parseRow(Track t, int i, int[] rgb, int stride) {
+        int row = i * stride;
+        long word = 0;
+        for (int j = 0; j < t.width; j++) {
+            int px = rgb[j];
+            if ((px & 255) != 255) {
+                word |= 1L << j;
+                if ((px & 255) != 64) {
+                    System.out.println(px & 255);
+                }
+            }
+            if (((px >> 8) & 255) == 128) {
+                t.startX = ((double)j) * World.SIZE / World.PX_METER;
+                t.startY = ((double)i) * World.SIZE / World.PX_METER;
+            }
+            if ((px & 255) == 200) {
+                t.centerX = ((double)j) * World.SIZE / World.PX_METER;
+                t.centerY = ((double)i) * World.SIZE / World.PX_METER;
+            }
+            if ((j & 63) == 63 || j == t.width - 1) {
+                t.solid[row + (j >>> 6)] = word;
+                word = 0;
+            }
+        }
+    }
+
+    private static Track readCache(Path cache, long length, long modified) {
+        if (!Files.isRegularFile(cache)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.limit() < HEADER_BYTES || data.getInt() != MAGIC || data.getInt() != VERSION
+                    || data.getLong() != length || data.getLong() != modified) {
+                return null;
+            }
+            Track t = new Track();
+            t.width   = data.getInt();
+            t.height  = data.getInt();
+            t.startX  = data.getDouble();
+            t.startY  = data.getDouble();
+            t.centerX = data.getDouble();
+            t.centerY = data.getDouble();
+            boolean hasProgress = data.getInt() != 0;
+            int stride = (t.width + 63) >>> 6;
+            t.solid     = new long[t.height * stride];
+            t.clearance = new byte[t.width * t.height];
+            t.progress  = hasProgress ? new char[t.width * t.height] : null;
+            if (data.remaining() != t.solid.length * 8L + t.clearance.length + (hasProgress ? t.progress.length * 2L : 0)) {
+                return null;
+            }
+            data.asLongBuffer().get(t.solid);
+            data.position(data.position() + t.solid.length * 8);
+            data.get(t.clearance);
+            if (hasProgress) {
+                data.asCharBuffer().get(t.progress);
+            }
+            return t;
+        } catch (IOException e) {
+            return null;  // just parse the image instead
+        }
+    }
+
+    // Written to a temporary file and moved into place, so another JVM (or
+    // thread) loading the same track never sees half a cache.
+    private static void writeCache(Path cache, Track t, long length, long modified) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(cache.toAbsolutePath().getParent(), "track", ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(modified);
+                header.putInt(t.width).putInt(t.height);
+                header.putDouble(t.startX).putDouble(t.startY).putDouble(t.centerX).putDouble(t.centerY);
+                header.putInt(t.progress != null ? 1 : 0);
+                header.flip();
+                ByteBuffer body = ByteBuffer.allocate(t.solid.length * 8);
+                body.asLongBuffer().put(t.solid);
+                ByteBuffer progress = ByteBuffer.allocate(t.progress != null ? t.progress.length * 2 : 0);
+                progress.asCharBuffer().put(t.progress != null ? t.progress : new char[0]);
+                for (ByteBuffer b : new ByteBuffer[] {header, body, ByteBuffer.wrap(t.clearance), progress}) {
+                    while (b.hasRemaining()) {
+                        channel.write(b);
+                    }
+                }
+            }
+            Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Couldn't cache track to " + cache + ": " + e);
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+                // nothing more to do
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// A bot that's slow on every call:  its first WARMUP_CALLS are never
+// overruns, inline or on the worker, and everything after is.
+class ActionBudgetTest {
+    static final long BUDGET_NANOS = 1_000_000;
+
+    static class SlowBot extends Bot {
+        SlowBot() {
+            super(0, 0, 0, "Slow Bot", Color.RED);
+        }
+        @Override
+        public int getAction(double dist0, double dist1, double dist2, double dist3, double dist4) {
+            try {
+                Thread.sleep(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ACCEL;
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void warmupCallsNeverOverrun(boolean useWorker) throws InterruptedException {
+        ActionBudget budget = new ActionBudget(BUDGET_NANOS, useWorker, Profiler.NONE);
+        Bot b = new SlowBot();
+        for (int call = 0; call < ActionBudget.WARMUP_CALLS; call++) {
+            assertEquals(Bot.ACCEL, budget.decide(b, 1, 1, 1, 1, 1));
+        }
+        assertEquals(0, b.getActionOverruns());
+        Thread.sleep(10);  // let nothing be left running on the worker
+        assertEquals(Bot.DRIFT, budget.decide(b, 1, 1, 1, 1, 1));
+        assertEquals(1, b.getActionOverruns());
+    }
+}
@@ -0,0 +1,53 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+import org.junit.jupiter.api.Test;
+
+// BotBatch runs Bot's physics and MyBot's Driver on its arrays, so the same
+// races through RaceEngine have to come out exactly the same, down to where
+// every bot ends up.
+class BotBatchTest {
+    static final int RACES = 32;
+    static final int LAPS  = 3;
+
+    @Test
+    void matchesRaceEngine() {
+        World[] tracks = Assets.worlds(Tournament.TRACKS);
+        World[] worlds = new World[RACES];
+        MyBot.Params[] params = new MyBot.Params[RACES];
+        for (int r = 0; r < RACES; r++) {
+            worlds[r] = tracks[r % tracks.length];
+            params[r] = MyBot.Params.random(r);
+        }
+        String[] names = { "Bot", "MyBot" };
+        BotBatch batch = new BotBatch(worlds, names,
+                new BatchPolicy[] { new AccelPolicy(), new MyBotPolicy(params) }, LAPS);
+        batch.run(RaceEngine.DEFAULT_MAX_FRAMES, 2);
+
+        for (int r = 0; r < RACES; r++) {
+            RaceEngine engine = new RaceEngine(worlds[r], 17, LAPS);
+            engine.setParticlesEnabled(false);
+            engine.addBot(new Bot(worlds[r].getStartX(), worlds[r].getStartY(), 0.0, names[0], Color.BLUE));
+            engine.addBot(new MyBot(worlds[r].getStartX(), worlds[r].getStartY(), 0.0, params[r]));
+            RaceResult expected = engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+            RaceResult got = batch.getResult(r);
+            String race = "race " + r;
+            assertEquals(expected.getWinner(), got.getWinner(), race);
+            assertEquals(expected.getFinishFrame(), got.getFinishFrame(), race);
+            assertEquals(expected.getFrames(), got.getFrames(), race);
+            for (int s = 0; s < names.length; s++) {
+                Bot b = engine.getRoster().get(s);
+                String bot = race + ", " + names[s];
+                assertEquals(expected.getLaps(s), got.getLaps(s), bot);
+                assertEquals(expected.getHealth(s), got.getHealth(s), bot);
+                assertEquals(expected.getCrashes(s), got.getCrashes(s), bot);
+                assertEquals(b.getX(), batch.getX(r, s), bot);
+                assertEquals(b.getY(), batch.getY(r, s), bot);
+                assertEquals(b.getAngle(), batch.getAngle(r, s), bot);
+                assertEquals(b.getSpeed(), batch.getSpeed(r, s), bot);
+            }
+        }
+    }
+}
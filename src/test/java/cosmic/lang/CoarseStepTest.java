@@ -0,0 +1,63 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Several ticks a step (RaceEngine.setStepFrames) against one.
+class CoarseStepTest {
+    static final int RACES = 16;
+
+    private static RaceEngine race(World world, Bot bot, int frames, double nearWall) {
+        RaceEngine engine = new RaceEngine(world, 17, 3);
+        engine.setParticlesEnabled(false);
+        engine.setStepFrames(frames);
+        engine.setNearWall(nearWall);
+        engine.addBot(bot);
+        engine.run(RaceEngine.DEFAULT_MAX_FRAMES);
+        return engine;
+    }
+
+    // Generic Bot never changes its mind, so holding its action changes
+    // nothing:  it has to end up exactly where it died, not a few ticks on.
+    @ParameterizedTest
+    @ValueSource(strings = { "/World0.png", "/World1.png", "/World2.png", "/World3.png" })
+    void deadBotsStop(String track) {
+        World world = Assets.world(track);
+        Bot fine = new Bot(world.getStartX(), world.getStartY(), 0.0, "Generic Bot", Color.BLUE);
+        Bot coarse = new Bot(world.getStartX(), world.getStartY(), 0.0, "Generic Bot", Color.BLUE);
+        race(world, fine, 1, 0);
+        race(world, coarse, 7, 0);
+        assertTrue(fine.isDead());
+        assertEquals(fine.getCrashes(), coarse.getCrashes());
+        assertEquals(fine.getLaps(), coarse.getLaps());
+        assertEquals(fine.getX(), coarse.getX());
+        assertEquals(fine.getY(), coarse.getY());
+        assertEquals(fine.getAngle(), coarse.getAngle());
+        assertEquals(fine.getSpeed(), coarse.getSpeed());
+    }
+
+    // With the default near-wall distance MyBot's races come out the same.
+    @Test
+    void nearWallKeepsOutcomes() {
+        World[] tracks = Assets.worlds(Tournament.TRACKS);
+        for (int r = 0; r < RACES; r++) {
+            World world = tracks[r % tracks.length];
+            MyBot.Params params = MyBot.Params.random(r);
+            RaceResult fine = race(world, new MyBot(world.getStartX(), world.getStartY(), 0.0, params), 1, 0)
+                    .getResult();
+            RaceResult coarse = race(world, new MyBot(world.getStartX(), world.getStartY(), 0.0, params), 4,
+                    RaceEngine.DEFAULT_NEAR_WALL).getResult();
+            String race = "race " + r;
+            assertEquals(fine.getWinner(), coarse.getWinner(), race);
+            assertEquals(fine.getFinishFrame(), coarse.getFinishFrame(), race);
+            assertEquals(fine.getLaps(0), coarse.getLaps(0), race);
+            assertEquals(fine.getCrashes(0), coarse.getCrashes(0), race);
+            assertEquals(fine.getHealth(0), coarse.getHealth(0), race);
+        }
+    }
+}
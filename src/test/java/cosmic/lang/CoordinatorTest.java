@@ -0,0 +1,97 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+
+// A Coordinator with workers on threads in this JVM.
+class CoordinatorTest {
+    // Falls over a second into the race.
+    static class BuggyBot extends Bot {
+        BuggyBot(double x, double y, double angleDegrees) {
+            super(x, y, angleDegrees, "Buggy Bot", Color.RED);
+        }
+        @Override
+        public int getAction(double dist0, double dist1, double dist2, double dist3, double dist4) {
+            if (getCounter() > 60) {
+                throw new IllegalStateException("buggy");
+            }
+            return ACCEL;
+        }
+    }
+
+    private static RaceSpec spec(String track, String... bots) {
+        return new RaceSpec(track, bots, 17, 3, RaceEngine.DEFAULT_MAX_FRAMES);
+    }
+
+    private static Thread worker(int port) {
+        Thread t = new Thread(() -> {
+            try {
+                Worker.run("localhost", port, 2, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    // A race that throws is given up on after MAX_ATTEMPTS, and the workers
+    // carry on with the others.  getRetried depends on timing:  an idle worker
+    // can steal the race while it's running, and then two copies fail with
+    // nothing to requeue in between.
+    @Test
+    void failedRaceIsGivenUpOn() throws Exception {
+        RaceSpec[] specs = {
+                spec("/World0.png", "Bot", "MyBot"),
+                spec("/World1.png", "MyBot", BuggyBot.class.getName()),
+                spec("/World2.png", "Bot", "MyBot"),
+                spec("/World3.png", "Bot", "MyBot"),
+        };
+        Coordinator c = new Coordinator(specs);
+        RaceResult[] results;
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        try (ServerSocket server = new ServerSocket(0)) {
+            workers.add(worker(server.getLocalPort()));
+            workers.add(worker(server.getLocalPort()));
+            results = c.run(server, 10000);
+        }
+        for (Thread t : workers) {
+            t.join(10000);
+        }
+        assertNull(results[1]);
+        assertTrue(c.getFailure(1).contains("buggy"), c.getFailure(1));
+        assertEquals(1, c.getFailed());
+        assertEquals(Coordinator.MAX_ATTEMPTS, c.getAttempts(1));
+        for (int race : new int[] { 0, 2, 3 }) {
+            assertNotNull(results[race]);
+            assertNull(c.getFailure(race));
+            assertEquals(0, c.getAttempts(race));
+            RaceResult local = specs[race].run();
+            assertEquals(local.getWinner(), results[race].getWinner());
+            assertEquals(local.getFinishFrame(), results[race].getFinishFrame());
+        }
+    }
+
+    // With nobody to run them, run gives up instead of waiting forever.
+    @Test
+    void noWorkersGivesUp() throws Exception {
+        RaceSpec[] specs = { spec("/World0.png", "Bot"), spec("/World1.png", "Bot") };
+        Coordinator c = new Coordinator(specs);
+        RaceResult[] results;
+        try (ServerSocket server = new ServerSocket(0)) {
+            results = c.run(server, 200);
+        }
+        assertNull(results[0]);
+        assertNull(results[1]);
+        assertEquals(2, c.getFailed());
+    }
+}
@@ -0,0 +1,55 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// PolicyTable.compile against the bots it was compiled from.
+class PolicyTableTest {
+    private static double[] readings(int n, long seed) {
+        Random rand = new Random(seed);
+        double[] r = new double[6 * n];
+        for (int k = 0; k < r.length; k += 6) {
+            for (int d = 0; d < 5; d++) {
+                r[k + d] = rand.nextDouble() * PolicyTable.MAX_DIST;
+            }
+            r[k + 5] = rand.nextDouble() * PolicyTable.MAX_SPEED;
+        }
+        return r;
+    }
+
+    // A bot that only flips at two thresholds gets an edge on each, so the
+    // table never disagrees with it.
+    @Test
+    void edgesLandOnThresholds() {
+        StatelessBot bot = (d0, d1, d2, d3, d4, speed) ->
+                d2 >= 10 ? Bot.ACCEL : speed > 4.25 ? Bot.BRAKE : Bot.ACCEL_LEFT;
+        PolicyTable table = PolicyTable.compile(bot, new int[] { 1, 1, 4, 1, 1, 4 }, 1, 1);
+        assertArrayEquals(new int[] { 1, 1, 4, 1, 1, 4 }, table.getBins());
+        assertEquals(16, table.getBytes());
+        assertTrue(contains(table.getEdges(2), 10.0));
+        assertTrue(contains(table.getEdges(5), 4.25));
+        assertEquals(0.0, PolicyTable.disagreement(bot, table, readings(100000, 1)));
+    }
+
+    private static boolean contains(double[] edges, double v) {
+        for (double e : edges) {
+            if (e == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // CruiseBot's default table, on readings spread over the sensors' ranges.
+    @Test
+    void cruiseBotMostlyAgrees() {
+        StatelessBot bot = new CruiseBot(0, 0, 0);
+        PolicyTable table = PolicyTable.compile(bot, new int[] { 1, 32, 16, 32, 1, 16 }, 4, 1);
+        double d = PolicyTable.disagreement(bot, table, readings(100000, 2));
+        assertTrue(d < 0.05, "disagreement " + d);
+    }
+}
@@ -0,0 +1,55 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Fans of rays evenly spread around from random empty spots.  Against scanRay
+// a fan's ray may be a sample off now and then (see RayFan), never more;  the
+// vector march (the tests run with the incubator module) must agree with the
+// scalar one exactly.
+class RayFanTest {
+    static final int FANS = 5000;
+    static final int RAYS = 16;
+
+    @AfterEach
+    void scalarAgain() {
+        RayFan.USE_VECTOR = false;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "/World0.png", "/World1.png", "/World2.png", "/World3.png" })
+    void fanMatchesScanRay(String track) {
+        assertTrue(RayFan.VECTOR_AVAILABLE, "VectorRays should be loaded in tests");
+        World world = Assets.world(track);
+        double[] angles = new double[RAYS];
+        for (int k = 0; k < RAYS; k++) {
+            angles[k] = -180.0 + 360.0 * k / RAYS;
+        }
+        double[] scalar = new double[RAYS];
+        double[] vector = new double[RAYS];
+        Random rand = new Random(1);
+        for (int n = 0; n < FANS; n++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.checkWorldPoint(x, y));
+            Bot b = new Bot(x, y, rand.nextDouble() * 360, "probe", Color.WHITE);
+            RayFan.USE_VECTOR = false;
+            b.scanRays(world, angles, scalar);
+            RayFan.USE_VECTOR = true;
+            b.scanRays(world, angles, vector);
+            assertArrayEquals(scalar, vector);
+            for (int k = 0; k < RAYS; k++) {
+                assertEquals(b.scanRay(world, angles[k]), scalar[k], Bot.SCAN_INCREMENT + 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Sphere tracing (Bot.scanRayTraced) only skips samples the clearance field
+// says are empty, so it has to land on exactly the sample the march does.
+class ScanRayTest {
+    static final int RAYS = 50000;
+
+    @ParameterizedTest
+    @ValueSource(strings = { "/World0.png", "/World1.png", "/World2.png", "/World3.png" })
+    void tracedMatchesMarch(String track) {
+        World world = Assets.world(track);
+        Random rand = new Random(1);
+        for (int n = 0; n < RAYS; n++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.checkWorldPoint(x, y));
+            Bot b = new Bot(x, y, rand.nextDouble() * 360, "probe", Color.WHITE);
+            double rel = rand.nextDouble() * 360 - 180;
+            assertEquals(b.scanRayMarch(world, rel), b.scanRayTraced(world, rel),
+                    () -> String.format("ray from (%f, %f) at %f degrees on %s", b.getX(), b.getY(), rel, track));
+        }
+    }
+}
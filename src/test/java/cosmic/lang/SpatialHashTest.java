@@ -0,0 +1,149 @@
+package cosmic.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// SpatialHash against checking every pair.
+class SpatialHashTest {
+    static final int BOTS = 500;
+
+    // Bots scattered over the empty parts of world, like Headless' crowd.
+    private static ArrayList<Bot> scatter(World world, int count, long seed) {
+        Random rand = new Random(seed);
+        ArrayList<Bot> bots = new ArrayList<Bot>();
+        for (int i = 0; i < count; i++) {
+            double x, y;
+            do {
+                x = rand.nextDouble() * world.getWidth() * World.BLOCK_METERS;
+                y = rand.nextDouble() * world.getHeight() * World.BLOCK_METERS;
+            } while (world.probe(x, y) < 3);
+            bots.add(new Bot(x, y, rand.nextDouble() * 360, "Crowd " + i, Color.WHITE) {
+                @Override
+                public int getAction(double d0, double d1, double d2, double d3, double d4) {
+                    if (d2 > 4) {
+                        return getSpeed() < 6 ? ACCEL : DRIFT;
+                    }
+                    return d1 > d3 ? BRAKE_LEFT : BRAKE_RIGHT;
+                }
+            });
+        }
+        return bots;
+    }
+
+    private static SpatialHash hash(World world, ArrayList<Bot> bots) {
+        SpatialHash hash = new SpatialHash(world);
+        for (int i = 0; i < bots.size(); i++) {
+            bots.get(i).setId(i);
+            hash.update(bots.get(i));
+        }
+        return hash;
+    }
+
+    private static double dist(Bot a, Bot b) {
+        return Math.hypot(a.getX() - b.getX(), a.getY() - b.getY());
+    }
+
+    // Closest other bot in bots within maxDist, the slow way.
+    private static double nearestDist(Bot b, ArrayList<Bot> bots, double maxDist) {
+        double best = maxDist;
+        for (Bot o : bots) {
+            if (o != b) {
+                best = Math.min(best, dist(b, o));
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void neighborsHoldEverythingClose() {
+        World world = Assets.world("/World2.png");
+        ArrayList<Bot> bots = scatter(world, BOTS, 1);
+        SpatialHash hash = hash(world, bots);
+        int[] out = new int[BOTS];
+        for (Bot b : bots) {
+            int n = hash.neighbors(b, out);
+            boolean[] found = new boolean[BOTS];
+            for (int k = 0; k < n; k++) {
+                found[out[k]] = true;
+                assertEquals(out[k], hash.get(out[k]).getId());
+            }
+            assertTrue(found[b.getId()], b.getName());
+            for (Bot o : bots) {
+                if (dist(b, o) <= SpatialHash.CELL_METERS) {
+                    assertTrue(found[o.getId()], b.getName() + " near " + o.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        World world = Assets.world("/World2.png");
+        ArrayList<Bot> bots = scatter(world, BOTS, 2);
+        SpatialHash hash = hash(world, bots);
+        for (double maxDist : new double[] { 1.0, 5.0, Bot.SCAN_MAX_DIST }) {
+            for (Bot b : bots) {
+                Bot got = hash.nearest(b, maxDist);
+                double expected = nearestDist(b, bots, maxDist);
+                if (got == null) {
+                    assertEquals(maxDist, expected, b.getName());
+                } else {
+                    assertEquals(expected, dist(b, got), b.getName());
+                }
+            }
+        }
+    }
+
+    // Removed bots are never found again, and the rest still are.
+    @Test
+    void removedBotsAreGone() {
+        World world = Assets.world("/World2.png");
+        ArrayList<Bot> bots = scatter(world, BOTS, 3);
+        SpatialHash hash = hash(world, bots);
+        ArrayList<Bot> left = new ArrayList<Bot>();
+        for (Bot b : bots) {
+            if (b.getId() % 2 == 0) {
+                hash.remove(b);
+            } else {
+                left.add(b);
+            }
+        }
+        for (Bot b : left) {
+            Bot got = hash.nearest(b, Bot.SCAN_MAX_DIST);
+            assertTrue(got == null || got.getId() % 2 == 1, b.getName());
+            double expected = nearestDist(b, left, Bot.SCAN_MAX_DIST);
+            assertEquals(expected, got == null ? Bot.SCAN_MAX_DIST : dist(b, got), b.getName());
+        }
+        hash.clear();
+        assertNull(hash.get(1));
+    }
+
+    // The engine's opponent sensor, once the bots have moved about.
+    @Test
+    void sensorMatchesBruteForce() {
+        World world = Assets.world("/World2.png");
+        RaceEngine engine = new RaceEngine(world, 17, Integer.MAX_VALUE);
+        engine.setParticlesEnabled(false);
+        engine.setOptions(RaceEngine.OPPONENT_SENSOR);
+        for (Bot b : scatter(world, BOTS, 4)) {
+            engine.addBot(b);
+        }
+        engine.run(200);
+        // The sensor runs at the start of a tick, so work out the answers first.
+        ArrayList<Bot> bots = new ArrayList<Bot>(engine.getBots());
+        double[] expected = new double[bots.size()];
+        for (int i = 0; i < bots.size(); i++) {
+            expected[i] = nearestDist(bots.get(i), bots, Bot.SCAN_MAX_DIST);
+        }
+        engine.step();
+        for (int i = 0; i < bots.size(); i++) {
+            assertEquals(expected[i], bots.get(i).getOpponentDistance(), 1e-9, bots.get(i).getName());
+        }
+    }
+}
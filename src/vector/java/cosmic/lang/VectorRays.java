@@ -0,0 +1,53 @@
+package cosmic.lang;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// Bot.marchRay for several rays at once:  every ray takes its i'th step
+// together, with the sample points worked out in one vector per step.  The
+// arithmetic is the same as checkWorldPoint's, so each ray stops on exactly
+// the sample marchRay would.  The (int) casts and bit lookups stay scalar:
+// on JDK 17 the D2I conversion isn't intrinsified (it was 5x slower than
+// this), and there's no cheap gather out of the world's bitset.
+//
+// This is the only code that needs the incubator module, so it's in its own
+// source set (src/vector, see build.gradle.kts) and RayFan loads it by name
+// if it's on the classpath and the module is there;  the rest of the game
+// compiles and runs without either.
+final class VectorRays implements RayFan.Marcher {
+    // 256 bits measured a little faster than SPECIES_PREFERRED (512) on AVX-512.
+    private static final VectorSpecies<Double> D = DoubleVector.SPECIES_256;
+
+    @Override
+    public void march(World world, double x, double y, double[] dx, double[] dy, int n,
+                      double[] out, double[] rows, double[] cols) {
+        int lanes  = D.length();
+        int width  = world.getWidth();
+        int height = world.getHeight();
+        for (int k0 = 0; k0 < n; k0 += lanes) {
+            DoubleVector vdx = DoubleVector.fromArray(D, dx, k0);
+            DoubleVector vdy = DoubleVector.fromArray(D, dy, k0);
+            int live = (1 << Math.min(lanes, n - k0)) - 1;  // a bit per ray still going
+            for (int i = 0; live != 0 && Bot.SCAN_INCREMENT * i < Bot.SCAN_MAX_DIST; i++) {
+                double t = i;
+                // World.checkWorldPoint(x + i * dx, y + i * dy), a lane per ray
+                DoubleVector sx = vdx.mul(t).add(x).mul(World.PX_METER);
+                DoubleVector sy = vdy.mul(t).add(y).mul(World.PX_METER);
+                sy.div(World.SIZE).intoArray(rows, 0);
+                sx.div(World.SIZE).intoArray(cols, 0);
+                for (int m = live; m != 0; m &= m - 1) {
+                    int lane = Integer.numberOfTrailingZeros(m);
+                    int r = (int)rows[lane];
+                    int c = (int)cols[lane];
+                    if ((r | c) >= 0 && r < height && c < width && world.isSolid(r, c)) {
+                        out[k0 + lane] = i * Bot.SCAN_INCREMENT;
+                        live &= ~(1 << lane);
+                    }
+                }
+            }
+            for (int m = live; m != 0; m &= m - 1) {
+                out[k0 + Integer.numberOfTrailingZeros(m)] = Bot.SCAN_MAX_DIST;
+            }
+        }
+    }
+}